@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import io.paperdb.Book;
+
+/**
+ * {@link PaperStore} backed by a single {@link Book}.
+ *
+ * @author pakoito
+ */
+final class BookStore implements PaperStore {
+    private final Book book;
+
+    BookStore(Book book) {
+        this.book = book;
+    }
+
+    @Override
+    public <T> void write(String key, T value) {
+        book.write(key, value);
+    }
+
+    @Override
+    public <T> T read(String key) {
+        return book.read(key);
+    }
+
+    @Override
+    public boolean exist(String key) {
+        return book.exist(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        book.delete(key);
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        return book.getAllKeys();
+    }
+
+    @Override
+    public void destroy() {
+        book.destroy();
+    }
+
+    @Override
+    public long size(String key) {
+        return new File(book.getPath(key)).length();
+    }
+
+    @Override
+    public long lastModified(String key) {
+        return new File(book.getPath(key)).lastModified();
+    }
+
+    @Override
+    public String getPath() {
+        return book.getPath();
+    }
+
+    @Override
+    public List<PaperStore> shards() {
+        return Collections.<PaperStore> singletonList(this);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import rx.Completable;
+import rx.CompletableSubscriber;
+import rx.Scheduler;
+import rx.exceptions.Exceptions;
+import rx.functions.Action0;
+
+/**
+ * Source of a {@link Completable} running a storage operation directly on a worker of the
+ * scheduler.
+ * <p/>
+ * Replaces chaining {@link Completable#fromAction(Action0)} with
+ * {@link Completable#subscribeOn(Scheduler)}, which allocates a source, a wrapper and their
+ * subscribers on every call and subscription.
+ *
+ * @author pakoito
+ */
+abstract class CompletableOperation implements Completable.OnSubscribe {
+    private final Scheduler scheduler;
+
+    CompletableOperation(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Runs on the scheduler once per subscription.
+     */
+    abstract void execute();
+
+    @Override
+    public final void call(final CompletableSubscriber subscriber) {
+        final Scheduler.Worker worker = scheduler.createWorker();
+        subscriber.onSubscribe(worker);
+        worker.schedule(new Run(subscriber, worker));
+    }
+
+    private final class Run implements Action0 {
+        private final CompletableSubscriber subscriber;
+
+        private final Scheduler.Worker worker;
+
+        Run(CompletableSubscriber subscriber, Scheduler.Worker worker) {
+            this.subscriber = subscriber;
+            this.worker = worker;
+        }
+
+        @Override
+        public void call() {
+            try {
+                execute();
+            } catch (Throwable e) {
+                Exceptions.throwIfFatal(e);
+                try {
+                    subscriber.onError(e);
+                } finally {
+                    worker.unsubscribe();
+                }
+                return;
+            }
+            try {
+                subscriber.onCompleted();
+            } finally {
+                worker.unsubscribe();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+/**
+ * Guarantee given by the completion of a write on a book opened with
+ * {@link RxPaperBook#withDurability(String, Durability, rx.Scheduler)}.
+ * <p/>
+ * Written objects are available to all other operations on the same book as soon as the write
+ * completes, independently of the durability chosen.
+ *
+ * @author pakoito
+ */
+public enum Durability {
+    /**
+     * Every write is saved to disk on its own, and completes once saved.
+     */
+    STRICT,
+    /**
+     * Writes arriving within a few milliseconds are saved together, and complete together once all
+     * of them are saved. Repeated writes to the same key inside that window are saved once. If
+     * saving fails they complete with the error, and the writes that failed are saved again with
+     * the next group or {@link RxPaperBook#flush()}.
+     */
+    GROUP_COMMIT,
+    /**
+     * Writes complete immediately and are saved to disk later, on
+     * {@link RxPaperBook#flush()} or once enough of them are waiting. Writes that are not flushed
+     * are lost if the process dies, so flushing is recommended on lifecycle events like
+     * {@code onStop()}. Writes that fail to be saved stay waiting, and the flush fails with the
+     * error.
+     */
+    RELAXED
+}
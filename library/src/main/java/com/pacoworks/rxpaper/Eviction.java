@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+/**
+ * Notification sent to the observers of a key when its object is removed from a bounded book to
+ * make room for new ones.
+ *
+ * @author pakoito
+ */
+public final class Eviction {
+    private final String key;
+
+    private final long bytes;
+
+    Eviction(String key, long bytes) {
+        this.key = key;
+        this.bytes = bytes;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        Eviction eviction = (Eviction)o;
+        return bytes == eviction.bytes && key.equals(eviction.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * key.hashCode() + (int)(bytes ^ (bytes >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "Eviction{" + "key='" + key + '\'' + ", bytes=" + bytes + '}';
+    }
+}
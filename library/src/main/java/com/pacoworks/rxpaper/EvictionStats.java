@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+/**
+ * Snapshot of the state of a bounded book.
+ *
+ * @author pakoito
+ */
+public final class EvictionStats {
+    private final int entries;
+
+    private final long bytes;
+
+    private final long evictions;
+
+    private final long bytesReclaimed;
+
+    EvictionStats(int entries, long bytes, long evictions, long bytesReclaimed) {
+        this.entries = entries;
+        this.bytes = bytes;
+        this.evictions = evictions;
+        this.bytesReclaimed = bytesReclaimed;
+    }
+
+    /**
+     * @return objects currently stored
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return bytes currently used on disk
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return objects evicted since the book was opened
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return bytes freed by evictions since the book was opened
+     */
+    public long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+
+    @Override
+    public String toString() {
+        return "EvictionStats{" + "entries=" + entries + ", bytes=" + bytes + ", evictions="
+                + evictions + ", bytesReclaimed=" + bytesReclaimed + '}';
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks size and usage of every object in a bounded book to select which ones to evict.
+ * <p/>
+ * Once a budget is exceeded, objects are evicted in a batch until a tenth of both budgets is free,
+ * so the cost of sorting candidates is not paid on every write. Usage counters are updated without
+ * locking and may be approximate under contention.
+ *
+ * @author pakoito
+ */
+final class EvictionTracker {
+    private static final int LOW_WATER_FRACTION = 10;
+
+    private static final class Entry {
+        final String key;
+
+        final long bytes;
+
+        volatile long lastAccess;
+
+        volatile long hits;
+
+        Entry(String key, long bytes, long lastAccess, long hits) {
+            this.key = key;
+            this.bytes = bytes;
+            this.lastAccess = lastAccess;
+            this.hits = hits;
+        }
+    }
+
+    /**
+     * Object selected for eviction, with its usage when selected.
+     */
+    static final class Victim {
+        final String key;
+
+        private final Entry entry;
+
+        private final long lastAccess;
+
+        private final long hits;
+
+        private Victim(Entry entry) {
+            key = entry.key;
+            this.entry = entry;
+            lastAccess = entry.lastAccess;
+            hits = entry.hits;
+        }
+    }
+
+    private static final Comparator<Entry> LRU = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return compareLongs(lhs.lastAccess, rhs.lastAccess);
+        }
+    };
+
+    private static final Comparator<Entry> LFU = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            final int hits = compareLongs(lhs.hits, rhs.hits);
+            return hits != 0 ? hits : compareLongs(lhs.lastAccess, rhs.lastAccess);
+        }
+    };
+
+    private final PaperStore book;
+
+    private final long maxBytes;
+
+    private final int maxEntries;
+
+    private final Comparator<Entry> comparator;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+
+    private volatile boolean loaded;
+
+    EvictionTracker(PaperStore book, long maxBytes, int maxEntries, EvictionPolicy policy) {
+        if (maxBytes <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("Budgets must be positive");
+        }
+        this.book = book;
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+        this.comparator = policy == EvictionPolicy.LFU ? LFU : LRU;
+    }
+
+    private static int compareLongs(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!loaded) {
+                for (String key : book.getAllKeys()) {
+                    track(key, book.size(key), book.lastModified(key), 0);
+                }
+                loaded = true;
+            }
+        }
+    }
+
+    private void track(String key, long size, long now, long hits) {
+        final Entry previous = entries.put(key, new Entry(key, size, now, hits));
+        bytes.addAndGet(null == previous ? size : size - previous.bytes);
+    }
+
+    void onWrite(String key, long now) {
+        load();
+        final Entry previous = entries.get(key);
+        track(key, book.size(key), now,
+                null == previous ? 1 : previous.hits + 1);
+    }
+
+    void onRead(String key, long now) {
+        load();
+        final Entry entry = entries.get(key);
+        if (null != entry) {
+            entry.lastAccess = now;
+            entry.hits++;
+        }
+    }
+
+    /**
+     * @return size of the removed object, or -1 if it was not tracked
+     */
+    long onDelete(String key) {
+        load();
+        final Entry previous = entries.remove(key);
+        if (null == previous) {
+            return -1;
+        }
+        bytes.addAndGet(-previous.bytes);
+        return previous.bytes;
+    }
+
+    /**
+     * Stops tracking a victim, unless it was written or read since it was selected.
+     *
+     * @return size of the removed object, or -1 if it was not removed
+     */
+    long onEvict(Victim victim) {
+        final Entry entry = victim.entry;
+        if (entry.lastAccess != victim.lastAccess || entry.hits != victim.hits
+                || !entries.remove(victim.key, entry)) {
+            return -1;
+        }
+        bytes.addAndGet(-entry.bytes);
+        return entry.bytes;
+    }
+
+    /**
+     * Tracks a victim again after failing to delete it, unless it was written meanwhile.
+     */
+    void onEvictFailed(Victim victim) {
+        if (null == entries.putIfAbsent(victim.key, victim.entry)) {
+            bytes.addAndGet(victim.entry.bytes);
+        }
+    }
+
+    void onEvicted(long size) {
+        evictions.incrementAndGet();
+        bytesReclaimed.addAndGet(size);
+    }
+
+    boolean isOverBudget() {
+        load();
+        return bytes.get() > maxBytes || entries.size() > maxEntries;
+    }
+
+    /**
+     * Selects the objects to evict to go back below the low water mark of both budgets.
+     */
+    List<Victim> victims() {
+        load();
+        final List<Entry> candidates = new ArrayList<>(entries.values());
+        Collections.sort(candidates, comparator);
+        final long targetBytes = maxBytes - maxBytes / LOW_WATER_FRACTION;
+        final int targetEntries = maxEntries - maxEntries / LOW_WATER_FRACTION;
+        long remainingBytes = bytes.get();
+        int remainingEntries = candidates.size();
+        final List<Victim> victims = new ArrayList<>();
+        for (Entry entry : candidates) {
+            if (remainingBytes <= targetBytes && remainingEntries <= targetEntries) {
+                break;
+            }
+            victims.add(new Victim(entry));
+            remainingBytes -= entry.bytes;
+            remainingEntries--;
+        }
+        return victims;
+    }
+
+    void clear() {
+        entries.clear();
+        bytes.set(0);
+        loaded = true;
+    }
+
+    EvictionStats stats() {
+        load();
+        return new EvictionStats(entries.size(), bytes.get(), evictions.get(),
+                bytesReclaimed.get());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Expiry deadlines for the keys of a book, kept in a separate {@link PaperStore} so checking them
+ * never requires deserializing the stored values.
+ * <p/>
+ * Deadlines are loaded lazily into memory the first time the index is used.
+ *
+ * @author pakoito
+ */
+final class ExpiryIndex {
+    private static final long NONE = Long.MAX_VALUE;
+
+    private final PaperStore book;
+
+    private final Map<String, Long> deadlines = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded;
+
+    private volatile long nextDeadline = NONE;
+
+    ExpiryIndex(PaperStore book) {
+        this.book = book;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!loaded) {
+                for (String key : book.getAllKeys()) {
+                    final Long deadline = book.read(key);
+                    if (null != deadline) {
+                        deadlines.put(key, deadline);
+                        nextDeadline = Math.min(nextDeadline, deadline);
+                    }
+                }
+                loaded = true;
+            }
+        }
+    }
+
+    void put(String key, long deadline) {
+        load();
+        book.write(key, deadline);
+        deadlines.put(key, deadline);
+        synchronized (this) {
+            nextDeadline = Math.min(nextDeadline, deadline);
+        }
+    }
+
+    void remove(String key) {
+        load();
+        deadlines.remove(key);
+        // the deadline may have been saved by another process after loading
+        book.delete(key);
+    }
+
+    boolean isExpired(String key, long now) {
+        load();
+        final Long deadline = deadlines.get(key);
+        return null != deadline && deadline <= now;
+    }
+
+    /**
+     * Checks the deadline saved for a key rather than the loaded one, and updates the loaded one.
+     */
+    boolean isExpiredInStore(String key, long now) {
+        load();
+        final Long deadline = book.read(key);
+        if (null == deadline) {
+            deadlines.remove(key);
+            return false;
+        }
+        deadlines.put(key, deadline);
+        if (deadline <= now) {
+            return true;
+        }
+        // replaced elsewhere by a later deadline, which the last scan didn't count
+        synchronized (this) {
+            nextDeadline = Math.min(nextDeadline, deadline);
+        }
+        return false;
+    }
+
+    /**
+     * Makes a key returned by {@link #expired(long, int)} expired again, after failing to delete
+     * it.
+     */
+    void retry(String key) {
+        final Long deadline = deadlines.get(key);
+        if (null != deadline) {
+            synchronized (this) {
+                nextDeadline = Math.min(nextDeadline, deadline);
+            }
+        }
+    }
+
+    boolean hasExpired(long now) {
+        load();
+        return nextDeadline <= now;
+    }
+
+    List<String> filterExpired(List<String> keys, long now) {
+        load();
+        if (deadlines.isEmpty()) {
+            return keys;
+        }
+        final List<String> valid = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (!isExpired(key, now)) {
+                valid.add(key);
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Returns at most max keys whose deadline has passed, and recalculates the next deadline once
+     * all of them have been collected.
+     * <p/>
+     * The scan holds the lock taken by {@link #put(String, long)} to lower the next deadline, so a
+     * deadline missed by the scan is applied after it rather than overwritten.
+     */
+    List<String> expired(long now, int max) {
+        load();
+        final List<String> expired = new ArrayList<>();
+        synchronized (this) {
+            long next = NONE;
+            for (Map.Entry<String, Long> entry : deadlines.entrySet()) {
+                final long deadline = entry.getValue();
+                if (deadline > now) {
+                    next = Math.min(next, deadline);
+                } else if (expired.size() < max) {
+                    expired.add(entry.getKey());
+                } else {
+                    return expired;
+                }
+            }
+            nextDeadline = next;
+        }
+        return expired;
+    }
+
+    void destroy() {
+        synchronized (this) {
+            book.destroy();
+            deadlines.clear();
+            nextDeadline = NONE;
+            loaded = true;
+        }
+    }
+}
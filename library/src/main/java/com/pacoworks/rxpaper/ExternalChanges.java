@@ -0,0 +1,100 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keys written to a book's folder by other processes, waiting to be sent to observers.
+ * <p/>
+ * Writes done by this process also produce file events, so they are counted while watching and
+ * the same number of events for their key is ignored.
+ *
+ * @author pakoito
+ */
+final class ExternalChanges {
+    /** Extension Paper uses for the file holding each object. */
+    private static final String PAPER_FILE_EXTENSION = ".pt";
+
+    private final Set<String> changed = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final ConcurrentMap<String, AtomicInteger> localWrites = new ConcurrentHashMap<>();
+
+    private final AtomicInteger watchers = new AtomicInteger();
+
+    void onWatchStarted() {
+        watchers.incrementAndGet();
+    }
+
+    void onWatchStopped() {
+        if (watchers.decrementAndGet() == 0) {
+            localWrites.clear();
+        }
+    }
+
+    void onLocalWrite(String key) {
+        if (watchers.get() == 0) {
+            return;
+        }
+        AtomicInteger count = localWrites.get(key);
+        if (null == count) {
+            final AtomicInteger created = new AtomicInteger();
+            count = localWrites.putIfAbsent(key, created);
+            count = null == count ? created : count;
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * @return whether the file belongs to an object written by another process
+     */
+    boolean onFileWritten(String fileName) {
+        if (!fileName.endsWith(PAPER_FILE_EXTENSION)) {
+            return false;
+        }
+        final String key = fileName.substring(0,
+                fileName.length() - PAPER_FILE_EXTENSION.length());
+        final AtomicInteger count = localWrites.get(key);
+        if (null != count) {
+            for (int pending = count.get(); pending > 0; pending = count.get()) {
+                if (count.compareAndSet(pending, pending - 1)) {
+                    return false;
+                }
+            }
+        }
+        changed.add(key);
+        return true;
+    }
+
+    List<String> drain() {
+        final List<String> keys = new ArrayList<>(changed);
+        changed.removeAll(keys);
+        return keys;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+import java.io.File;
+
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.subscriptions.Subscriptions;
+
+import android.os.FileObserver;
+
+/**
+ * {@link DirectoryWatcher} using {@link FileObserver}, which receives file system events from the
+ * kernel for writes done by any process.
+ *
+ * @author pakoito
+ */
+final class FileObserverWatcher implements DirectoryWatcher {
+    private static final int WRITE_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO;
+
+    @Override
+    public Subscription watch(String directory, final Action1<String> onWritten) {
+        new File(directory).mkdirs();
+        final FileObserver observer = new FileObserver(directory, WRITE_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (null != path) {
+                    onWritten.call(path);
+                }
+            }
+        };
+        observer.startWatching();
+        // the subscription keeps the observer referenced, as it stops when garbage collected
+        return Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                observer.stopWatching();
+            }
+        });
+    }
+}
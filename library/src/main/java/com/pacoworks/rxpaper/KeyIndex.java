@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Sorted keys saved on a store, so the keys starting with a prefix are found in time proportional
+ * to their number rather than the size of the store.
+ * <p/>
+ * Keys are loaded lazily the first time a prefix is looked up. Until then changes are ignored, so
+ * books that never use prefixes don't pay for the index. Changes must be reported after being
+ * applied to the storage. All instances on the same store share one index, but changes done by
+ * other processes are missed, so the index may hold keys that have expired or been deleted, and
+ * lack keys saved elsewhere. Callers have to check the keys it returns.
+ *
+ * @author pakoito
+ */
+final class KeyIndex {
+    private final PaperStore book;
+
+    private volatile NavigableSet<String> keys;
+
+    KeyIndex(PaperStore book) {
+        this.book = book;
+    }
+
+    private NavigableSet<String> load() {
+        final NavigableSet<String> current = keys;
+        if (null != current) {
+            return current;
+        }
+        synchronized (this) {
+            if (null == keys) {
+                final NavigableSet<String> loaded = new ConcurrentSkipListSet<>();
+                // changes reported meanwhile wait for the lock, and are applied after publishing
+                loaded.addAll(book.getAllKeys());
+                keys = loaded;
+            }
+            return keys;
+        }
+    }
+
+    void add(String key) {
+        final NavigableSet<String> current = keys;
+        if (null != current) {
+            current.add(key);
+            return;
+        }
+        synchronized (this) {
+            if (null != keys) {
+                keys.add(key);
+            }
+        }
+    }
+
+    void remove(String key) {
+        final NavigableSet<String> current = keys;
+        if (null != current) {
+            current.remove(key);
+            return;
+        }
+        synchronized (this) {
+            if (null != keys) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return keys starting with the prefix, in order
+     */
+    List<String> withPrefix(String prefix) {
+        final List<String> matching = new ArrayList<>();
+        for (String key : load().tailSet(prefix, true)) {
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            matching.add(key);
+        }
+        return matching;
+    }
+
+    /**
+     * Forgets all keys, to be loaded again from the storage on the next lookup.
+     */
+    void invalidate() {
+        synchronized (this) {
+            keys = null;
+        }
+    }
+}
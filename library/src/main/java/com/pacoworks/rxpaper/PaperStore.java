@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+import java.util.List;
+
+import io.paperdb.Book;
+
+/**
+ * Storage operations used by {@link RxPaperBook}, following the naming of {@link Book}.
+ *
+ * @author pakoito
+ */
+interface PaperStore {
+    <T> void write(String key, T value);
+
+    /**
+     * @return the saved object, or null if the key doesn't exist
+     */
+    <T> T read(String key);
+
+    boolean exist(String key);
+
+    void delete(String key);
+
+    List<String> getAllKeys();
+
+    void destroy();
+
+    /**
+     * @return size on disk of the object for a key, or 0 if it doesn't exist
+     */
+    long size(String key);
+
+    /**
+     * @return last time the object for a key was written, or 0 if it doesn't exist
+     */
+    long lastModified(String key);
+
+    /**
+     * @return folder holding the files of this store, or null if it is split into shards
+     */
+    String getPath();
+
+    /**
+     * Independent stores this one is split into, which can be operated on in parallel.
+     *
+     * @return the shards, or a list containing only this store if it is not split
+     */
+    List<PaperStore> shards();
+}
@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Scheduler;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.subscriptions.CompositeSubscription;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Limits how many operations run at once on a scheduler, and starts queued {@link Priority}
+ * FOREGROUND operations before any queued BACKGROUND ones.
+ * <p/>
+ * Running operations are never interrupted. Actions scheduled on the same worker still run one at
+ * a time and in order, but each one is queued again behind any foreground work.
+ *
+ * @author pakoito
+ */
+final class PriorityLanes {
+    private final Scheduler scheduler;
+
+    private final int maxConcurrent;
+
+    private final Queue<LaneWorker> foreground = new ConcurrentLinkedQueue<>();
+
+    private final Queue<LaneWorker> background = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final Scheduler foregroundLane = new Lane(Priority.FOREGROUND);
+
+    private final Scheduler backgroundLane = new Lane(Priority.BACKGROUND);
+
+    PriorityLanes(Scheduler scheduler, int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("At least one concurrent operation is required");
+        }
+        this.scheduler = scheduler;
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    Scheduler lane(Priority priority) {
+        return priority == Priority.FOREGROUND ? foregroundLane : backgroundLane;
+    }
+
+    private void submit(LaneWorker worker) {
+        (worker.priority == Priority.FOREGROUND ? foreground : background).offer(worker);
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (!foreground.isEmpty() || !background.isEmpty()) {
+            final int current = running.get();
+            if (current >= maxConcurrent) {
+                return;
+            }
+            if (!running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            LaneWorker next = foreground.poll();
+            if (null == next) {
+                next = background.poll();
+            }
+            if (null == next) {
+                running.decrementAndGet();
+            } else {
+                start(next);
+            }
+        }
+    }
+
+    private void start(final LaneWorker next) {
+        final Scheduler.Worker worker = scheduler.createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    next.runNext();
+                } finally {
+                    worker.unsubscribe();
+                    running.decrementAndGet();
+                    dispatch();
+                }
+            }
+        });
+    }
+
+    private final class Lane extends Scheduler {
+        private final Priority priority;
+
+        Lane(Priority priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public Worker createWorker() {
+            return new LaneWorker(priority);
+        }
+
+        @Override
+        public long now() {
+            return scheduler.now();
+        }
+    }
+
+    private final class LaneWorker extends Scheduler.Worker {
+        final Priority priority;
+
+        private final Queue<ScheduledAction> actions = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private final CompositeSubscription subscriptions = new CompositeSubscription();
+
+        private Scheduler.Worker delayWorker;
+
+        LaneWorker(Priority priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public Subscription schedule(Action0 action) {
+            if (isUnsubscribed()) {
+                return Subscriptions.unsubscribed();
+            }
+            final ScheduledAction scheduled = new ScheduledAction(action);
+            actions.offer(scheduled);
+            if (pending.getAndIncrement() == 0) {
+                submit(this);
+            }
+            return scheduled;
+        }
+
+        @Override
+        public Subscription schedule(final Action0 action, long delayTime, TimeUnit unit) {
+            if (delayTime <= 0) {
+                return schedule(action);
+            }
+            if (isUnsubscribed()) {
+                return Subscriptions.unsubscribed();
+            }
+            synchronized (this) {
+                if (null == delayWorker) {
+                    delayWorker = scheduler.createWorker();
+                    subscriptions.add(delayWorker);
+                }
+            }
+            return delayWorker.schedule(new Action0() {
+                @Override
+                public void call() {
+                    schedule(action);
+                }
+            }, delayTime, unit);
+        }
+
+        /**
+         * Runs the oldest action, and queues the worker again if more are left.
+         */
+        void runNext() {
+            final ScheduledAction next = actions.poll();
+            try {
+                if (!isUnsubscribed() && !next.isUnsubscribed()) {
+                    next.action.call();
+                }
+            } finally {
+                if (pending.decrementAndGet() > 0) {
+                    submit(this);
+                }
+            }
+        }
+
+        @Override
+        public void unsubscribe() {
+            subscriptions.unsubscribe();
+        }
+
+        @Override
+        public boolean isUnsubscribed() {
+            return subscriptions.isUnsubscribed();
+        }
+    }
+
+    private static final class ScheduledAction implements Subscription {
+        final Action0 action;
+
+        private volatile boolean unsubscribed;
+
+        ScheduledAction(Action0 action) {
+            this.action = action;
+        }
+
+        @Override
+        public void unsubscribe() {
+            unsubscribed = true;
+        }
+
+        @Override
+        public boolean isUnsubscribed() {
+            return unsubscribed;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+/**
+ * Snapshot of how many reads of a book were served by joining a read already in flight.
+ *
+ * @author pakoito
+ */
+public final class ReadStats {
+    private final long reads;
+
+    private final long coalesced;
+
+    ReadStats(long reads, long coalesced) {
+        this.reads = reads;
+        this.coalesced = coalesced;
+    }
+
+    /**
+     * @return reads subscribed to since the book was opened
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * @return reads that shared the result of another read of the same key
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return ratio of coalesced reads, between 0 and 1
+     */
+    public double getHitRate() {
+        return reads == 0 ? 0 : (double)coalesced / reads;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadStats{" + "reads=" + reads + ", coalesced=" + coalesced + '}';
+    }
+}
@@ -21,22 +21,39 @@
 
 package com.pacoworks.rxpaper;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import rx.Completable;
+import rx.CompletableSubscriber;
 import rx.Observable;
 import rx.Scheduler;
 import rx.Single;
+import rx.Subscription;
+import rx.exceptions.Exceptions;
 import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Action2;
 import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
 import rx.subjects.PublishSubject;
 import rx.subjects.SerializedSubject;
+import rx.subscriptions.CompositeSubscription;
+import rx.subscriptions.Subscriptions;
 
 import android.content.Context;
-import android.util.Pair;
+import android.util.Log;
 
 import io.paperdb.Book;
 import io.paperdb.Paper;
@@ -47,23 +64,150 @@ import io.paperdb.Paper;
  * @author pakoito
  */
 public class RxPaperBook {
+    private static final String TAG = "RxPaperBook";
+
     private static final AtomicBoolean INITIALIZED = new AtomicBoolean();
 
-    final Book book;
+    private static final ConcurrentMap<String, ExpiryIndex> EXPIRY_INDEXES =
+            new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, KeyIndex> KEY_INDEXES = new ConcurrentHashMap<>();
+
+    private static final int SCAN_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /** Name Paper uses for its main book. */
+    private static final String DEFAULT_BOOK = "io.paperdb";
+
+    private static final String EXPIRY_BOOK_SUFFIX = ".expiry";
+
+    private static final String SHARD_BOOK_SEPARATOR = ".";
+
+    private static final int SWEEP_BATCH = 64;
+
+    private static final int KEY_LOCKS = 32;
+
+    private static final long GROUP_COMMIT_WINDOW_MILLIS = 10;
+
+    private static final int RELAXED_MAX_PENDING = 256;
+
+    private static final long EXTERNAL_CHANGES_WINDOW_MILLIS = 50;
+
+    final PaperStore book;
 
     final Scheduler scheduler;
 
-    final SerializedSubject<Pair<String, ?>, Pair<String, ?>> updates = new SerializedSubject<>(
-            PublishSubject.<Pair<String, ?>> create());
+    final ExpiryIndex expiries;
+
+    final EvictionTracker tracker;
+
+    final PriorityLanes lanes;
+
+    final Durability durability;
+
+    final WriteBuffer buffer;
+
+    final SingleFlight flights;
+
+    final ExternalChanges externalChanges;
+
+    final KeyIndex keyIndex;
+
+    final DirectoryWatcher watcher;
+
+    final SerializedSubject<Update, Update> updates;
+
+    private final Scheduler readScheduler;
+
+    private final Scheduler writeScheduler;
+
+    private final Object[] keyLocks;
+
+    private final AtomicBoolean sweeping;
+
+    private final AtomicBoolean evicting;
+
+    private final AtomicBoolean flushing;
+
+    private final AtomicBoolean publishingExternalChanges;
+
+    private final Func1<String, Object> validReader = new Func1<String, Object>() {
+        @Override
+        public Object call(String key) {
+            return readValid(key);
+        }
+    };
 
     private RxPaperBook(Scheduler scheduler) {
-        this.scheduler = scheduler;
-        book = Paper.book();
+        this(new BookStore(Paper.book()), expiryIndex(DEFAULT_BOOK), scheduler, null, null,
+                Durability.STRICT);
     }
 
     private RxPaperBook(String customBook, Scheduler scheduler) {
+        this(new BookStore(Paper.book(customBook)), expiryIndex(customBook), scheduler, null, null,
+                Durability.STRICT);
+    }
+
+    private RxPaperBook(PaperStore book, ExpiryIndex expiries, Scheduler scheduler,
+            EvictionTracker tracker, PriorityLanes lanes, Durability durability) {
+        this(book, expiries, keyIndex(book), scheduler, tracker, lanes, durability,
+                new FileObserverWatcher());
+    }
+
+    /**
+     * Visible for tests, which replace the Paper books with other stores.
+     *
+     * @param book store for the objects
+     * @param expiries expiry times of the objects, shared by all instances on the same store
+     * @param keyIndex sorted keys of the objects, shared by all instances on the same store
+     * @param watcher source of the files written to the folders of the store
+     */
+    RxPaperBook(PaperStore book, ExpiryIndex expiries, KeyIndex keyIndex, Scheduler scheduler,
+            EvictionTracker tracker, PriorityLanes lanes, Durability durability,
+            DirectoryWatcher watcher) {
+        this.book = book;
         this.scheduler = scheduler;
-        book = Paper.book(customBook);
+        this.tracker = tracker;
+        this.lanes = lanes;
+        this.durability = durability;
+        buffer = new WriteBuffer();
+        flights = new SingleFlight(validReader);
+        externalChanges = new ExternalChanges();
+        this.keyIndex = keyIndex;
+        this.watcher = watcher;
+        this.expiries = expiries;
+        updates = new SerializedSubject<>(PublishSubject.<Update> create());
+        readScheduler = null == lanes ? scheduler : lanes.lane(Priority.FOREGROUND);
+        writeScheduler = null == lanes ? scheduler : lanes.lane(Priority.BACKGROUND);
+        keyLocks = new Object[KEY_LOCKS];
+        for (int i = 0; i < KEY_LOCKS; i++) {
+            keyLocks[i] = new Object();
+        }
+        sweeping = new AtomicBoolean();
+        evicting = new AtomicBoolean();
+        flushing = new AtomicBoolean();
+        publishingExternalChanges = new AtomicBoolean();
+    }
+
+    private RxPaperBook(RxPaperBook source, Priority priority) {
+        book = source.book;
+        scheduler = source.scheduler;
+        tracker = source.tracker;
+        lanes = source.lanes;
+        durability = source.durability;
+        buffer = source.buffer;
+        flights = source.flights;
+        externalChanges = source.externalChanges;
+        keyIndex = source.keyIndex;
+        watcher = source.watcher;
+        expiries = source.expiries;
+        updates = source.updates;
+        readScheduler = lanes.lane(priority);
+        writeScheduler = lanes.lane(priority);
+        keyLocks = source.keyLocks;
+        sweeping = source.sweeping;
+        evicting = source.evicting;
+        flushing = source.flushing;
+        publishingExternalChanges = source.publishingExternalChanges;
     }
 
     /**
@@ -86,6 +230,40 @@ public class RxPaperBook {
         }
     }
 
+    /**
+     * Instances opened on the same book share its expiry index, so the deadlines cached by one are
+     * never stale for another.
+     */
+    private static ExpiryIndex expiryIndex(String customBook) {
+        final ExpiryIndex current = EXPIRY_INDEXES.get(customBook);
+        if (null != current) {
+            return current;
+        }
+        final ExpiryIndex created = new ExpiryIndex(
+                new BookStore(Paper.book(customBook + EXPIRY_BOOK_SUFFIX)));
+        final ExpiryIndex raced = EXPIRY_INDEXES.putIfAbsent(customBook, created);
+        return null == raced ? created : raced;
+    }
+
+    /**
+     * Instances opened on the same folders share their key index, so changes done by one are seen
+     * by the others.
+     */
+    private static KeyIndex keyIndex(PaperStore book) {
+        final StringBuilder folders = new StringBuilder();
+        for (PaperStore shard : book.shards()) {
+            folders.append(shard.getPath()).append(File.pathSeparatorChar);
+        }
+        final String id = folders.toString();
+        final KeyIndex current = KEY_INDEXES.get(id);
+        if (null != current) {
+            return current;
+        }
+        final KeyIndex created = new KeyIndex(book);
+        final KeyIndex raced = KEY_INDEXES.putIfAbsent(id, created);
+        return null == raced ? created : raced;
+    }
+
     /**
      * Open the main {@link Book} running its operations on {@link Schedulers#io()}.
      * <p/>
@@ -138,6 +316,196 @@ public class RxPaperBook {
         return new RxPaperBook(customBook, scheduler);
     }
 
+    /**
+     * Open a custom {@link Book} limited in size and number of objects, running its operations on
+     * {@link Schedulers#io()}.
+     * <p/>
+     * Requires calling {@link RxPaperBook#init(Context)} at least once beforehand.
+     *
+     * @param customBook book name
+     * @param maxBytes maximum size on disk of all objects
+     * @param maxEntries maximum number of objects
+     * @param policy strategy to select which objects are evicted when over either limit
+     * @return new RxPaperBook
+     * @see #withBounds(String, long, int, EvictionPolicy, Scheduler)
+     */
+    public static RxPaperBook withBounds(String customBook, long maxBytes, int maxEntries,
+            EvictionPolicy policy) {
+        return withBounds(customBook, maxBytes, maxEntries, policy, Schedulers.io());
+    }
+
+    /**
+     * Open a custom {@link Book} limited in size and number of objects, running its operations on
+     * a provided scheduler.
+     * <p/>
+     * After a write takes the book over either limit, objects are evicted in a batch until a tenth
+     * of both limits is free again. Every eviction is sent to the observers of the key as an
+     * {@link Eviction}, see {@link #observeEvictions()} and {@link #evictionStats()}.
+     * <p/>
+     * Requires calling {@link RxPaperBook#init(Context)} at least once beforehand.
+     *
+     * @param customBook book name
+     * @param maxBytes maximum size on disk of all objects
+     * @param maxEntries maximum number of objects
+     * @param policy strategy to select which objects are evicted when over either limit
+     * @param scheduler scheduler where operations will be run
+     * @return new RxPaperBook
+     */
+    public static RxPaperBook withBounds(String customBook, long maxBytes, int maxEntries,
+            EvictionPolicy policy, Scheduler scheduler) {
+        assertInitialized();
+        final PaperStore book = new BookStore(Paper.book(customBook));
+        return new RxPaperBook(book, expiryIndex(customBook), scheduler,
+                new EvictionTracker(book, maxBytes, maxEntries, policy), null,
+                Durability.STRICT);
+    }
+
+    /**
+     * Open a custom {@link Book} split into several folders, running its operations on
+     * {@link Schedulers#io()}.
+     * <p/>
+     * Requires calling {@link RxPaperBook#init(Context)} at least once beforehand.
+     *
+     * @param customBook book name
+     * @param shards number of folders the objects are spread over
+     * @return new RxPaperBook
+     * @see #withShards(String, int, Scheduler)
+     */
+    public static RxPaperBook withShards(String customBook, int shards) {
+        return withShards(customBook, shards, Schedulers.io());
+    }
+
+    /**
+     * Open a custom {@link Book} split into several folders, running its operations on a provided
+     * scheduler.
+     * <p/>
+     * Objects are spread over the folders by key hash, so each folder holds a fraction of the
+     * files and operations on a single key stay fast for books with many objects.
+     * {@link #keys()} and {@link #destroy()} run on all folders in parallel.
+     * <p/>
+     * A book has to be always opened with the same number of shards, or objects won't be found.
+     * <p/>
+     * Requires calling {@link RxPaperBook#init(Context)} at least once beforehand.
+     *
+     * @param customBook book name
+     * @param shards number of folders the objects are spread over
+     * @param scheduler scheduler where operations will be run
+     * @return new RxPaperBook
+     */
+    public static RxPaperBook withShards(String customBook, int shards, Scheduler scheduler) {
+        assertInitialized();
+        if (shards < 1) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        final PaperStore[] stores = new PaperStore[shards];
+        for (int i = 0; i < shards; i++) {
+            stores[i] = new BookStore(Paper.book(customBook + SHARD_BOOK_SEPARATOR + i));
+        }
+        return new RxPaperBook(new ShardedStore(stores), expiryIndex(customBook), scheduler, null,
+                null, Durability.STRICT);
+    }
+
+    /**
+     * Open a custom {@link Book} with prioritized operations, running them on
+     * {@link Schedulers#io()}.
+     * <p/>
+     * Requires calling {@link RxPaperBook#init(Context)} at least once beforehand.
+     *
+     * @param customBook book name
+     * @param maxConcurrent maximum number of operations running at the same time
+     * @return new RxPaperBook
+     * @see #withPriorityLanes(String, int, Scheduler)
+     */
+    public static RxPaperBook withPriorityLanes(String customBook, int maxConcurrent) {
+        return withPriorityLanes(customBook, maxConcurrent, Schedulers.io());
+    }
+
+    /**
+     * Open a custom {@link Book} with prioritized operations, running them on a provided
+     * scheduler.
+     * <p/>
+     * At most maxConcurrent operations run at the same time, and the rest wait in two queues. Queued
+     * {@link Priority#FOREGROUND} operations are always started before any queued
+     * {@link Priority#BACKGROUND} ones, so a large batch of background writes doesn't delay reads
+     * needed on screen. Reads, {@link #exists(String)}, {@link #keys()} and
+     * {@link #scan(Func1)} are foreground by default, and writes, deletes and {@link #destroy()}
+     * are background. Use {@link #foreground()} and {@link #background()} to choose otherwise.
+     * <p/>
+     * Requires calling {@link RxPaperBook#init(Context)} at least once beforehand.
+     *
+     * @param customBook book name
+     * @param maxConcurrent maximum number of operations running at the same time
+     * @param scheduler scheduler where operations will be run
+     * @return new RxPaperBook
+     */
+    public static RxPaperBook withPriorityLanes(String customBook, int maxConcurrent,
+            Scheduler scheduler) {
+        assertInitialized();
+        return new RxPaperBook(new BookStore(Paper.book(customBook)), expiryIndex(customBook),
+                scheduler, null, new PriorityLanes(scheduler, maxConcurrent), Durability.STRICT);
+    }
+
+    /**
+     * Open a custom {@link Book} with the given guarantees for writes, running its operations on
+     * {@link Schedulers#io()}.
+     * <p/>
+     * Requires calling {@link RxPaperBook#init(Context)} at least once beforehand.
+     *
+     * @param customBook book name
+     * @param durability guarantee given by the completion of a write
+     * @return new RxPaperBook
+     * @see #withDurability(String, Durability, Scheduler)
+     */
+    public static RxPaperBook withDurability(String customBook, Durability durability) {
+        return withDurability(customBook, durability, Schedulers.io());
+    }
+
+    /**
+     * Open a custom {@link Book} with the given guarantees for writes, running its operations on a
+     * provided scheduler.
+     * <p/>
+     * {@link Durability#GROUP_COMMIT} and {@link Durability#RELAXED} trade how soon a write is on
+     * disk for throughput on bursts of writes. Objects waiting to be saved are available to all
+     * other operations on this book, but not to other instances opened on the same book name.
+     * <p/>
+     * Requires calling {@link RxPaperBook#init(Context)} at least once beforehand.
+     *
+     * @param customBook book name
+     * @param durability guarantee given by the completion of a write
+     * @param scheduler scheduler where operations will be run
+     * @return new RxPaperBook
+     */
+    public static RxPaperBook withDurability(String customBook, Durability durability,
+            Scheduler scheduler) {
+        assertInitialized();
+        return new RxPaperBook(new BookStore(Paper.book(customBook)), expiryIndex(customBook),
+                scheduler, null, null, durability);
+    }
+
+    /**
+     * View of this book running all its operations with {@link Priority#FOREGROUND} priority.
+     * <p/>
+     * Only books opened with {@link #withPriorityLanes(String, int, Scheduler)} are prioritized,
+     * otherwise this book is returned.
+     *
+     * @return RxPaperBook sharing storage and updates with this one
+     */
+    public RxPaperBook foreground() {
+        return null == lanes ? this : new RxPaperBook(this, Priority.FOREGROUND);
+    }
+
+    /**
+     * View of this book running all its operations with {@link Priority#BACKGROUND} priority.
+     * <p/>
+     * Only books opened with {@link #withPriorityLanes(String, int, Scheduler)} are prioritized,
+     * otherwise this book is returned.
+     *
+     * @return RxPaperBook sharing storage and updates with this one
+     */
+    public RxPaperBook background() {
+        return null == lanes ? this : new RxPaperBook(this, Priority.BACKGROUND);
+    }
+
     /**
      * Saves most types of POJOs or collections in {@link Book} storage.
      * <p/>
@@ -149,13 +517,87 @@ public class RxPaperBook {
      * @return this Book instance
      */
     public <T> Completable write(final String key, final T value) {
-        return Completable.fromAction(new Action0() {
+        return store(key, value, -1);
+    }
+
+    /**
+     * Saves most types of POJOs or collections in {@link Book} storage for a limited time.
+     * <p/>
+     * Once the time to live has passed the object is treated as missing by every other operation,
+     * and its storage is reclaimed in batches on the provided scheduler. The expiry time is kept
+     * apart from the object so it can be checked without deserializing it.
+     *
+     * @param key object key is used as part of object's file name
+     * @param value object to save, must have no-arg constructor, can't be null.
+     * @param ttl time the object will be available for, must be positive
+     * @param unit time unit of ttl
+     * @return this Book instance
+     * @throws IllegalArgumentException if ttl is not positive
+     */
+    public <T> Completable write(final String key, final T value, final long ttl,
+            final TimeUnit unit) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive, was " + ttl);
+        }
+        return store(key, value, unit.toMillis(ttl));
+    }
+
+    private Completable store(final String key, final Object value, final long ttlMillis) {
+        switch (durability) {
+            case GROUP_COMMIT:
+                return Completable.create(new Completable.OnSubscribe() {
+                    @Override
+                    public void call(CompletableSubscriber subscriber) {
+                        subscriber.onSubscribe(Subscriptions.empty());
+                        enqueue(key, value, ttlMillis);
+                        flights.invalidate(key);
+                        if (buffer.await(subscriber)) {
+                            requestGroupCommit();
+                        }
+                    }
+                });
+            case RELAXED:
+                return Completable.create(new CompletableOperation(writeScheduler) {
+                    @Override
+                    void execute() {
+                        enqueue(key, value, ttlMillis);
+                        flights.invalidate(key);
+                        publish(key, value);
+                        if (buffer.size() >= RELAXED_MAX_PENDING) {
+                            requestFlush();
+                        }
+                    }
+                });
+            default:
+                return Completable.create(new CompletableOperation(writeScheduler) {
+                    @Override
+                    void execute() {
+                        commit(key, value, deadline(ttlMillis));
+                        publish(key, value);
+                        requestSweep();
+                        requestEviction();
+                    }
+                });
+        }
+    }
+
+    /**
+     * Saves all writes waiting to be saved to disk.
+     * <p/>
+     * Only books opened with {@link Durability#GROUP_COMMIT} or {@link Durability#RELAXED} delay
+     * writes, otherwise this operation completes immediately. Fails with the first storage error,
+     * keeping the writes that couldn't be saved for the next flush.
+     */
+    public Completable flush() {
+        return Completable.create(new CompletableOperation(writeScheduler) {
             @Override
-            public void call() {
-                book.write(key, value);
-                updates.onNext(Pair.create(key, value));
+            void execute() {
+                final Throwable error = flushPending();
+                if (null != error) {
+                    throw Exceptions.propagate(error);
+                }
             }
-        }).subscribeOn(scheduler);
+        });
     }
 
     /**
@@ -168,12 +610,17 @@ public class RxPaperBook {
      * @return the saved object instance or defaultValue
      */
     public <T> Single<T> read(final String key, final T defaultValue) {
-        return Single.fromCallable(new Func0<T>() {
+        return Single.create(new SingleFlight.Read<T>(flights, key, readScheduler) {
             @Override
-            public T call() {
-                return book.read(key, defaultValue);
+            @SuppressWarnings("unchecked")
+            T onRead(Object read) {
+                if (null == read) {
+                    return defaultValue;
+                }
+                trackRead(key);
+                return (T)read;
             }
-        }).subscribeOn(scheduler);
+        });
     }
 
     /**
@@ -185,28 +632,52 @@ public class RxPaperBook {
      * @return the saved object instance
      */
     public <T> Single<T> read(final String key) {
-        return Single.fromCallable(new Func0<T>() {
+        return Single.create(new SingleFlight.Read<T>(flights, key, readScheduler) {
             @Override
-            public T call() {
-                final T read = book.read(key);
+            @SuppressWarnings("unchecked")
+            T onRead(Object read) {
                 if (null == read) {
                     throw new IllegalArgumentException("Key " + key + " not found");
                 }
-                return read;
+                trackRead(key);
+                return (T)read;
             }
-        }).subscribeOn(scheduler);
+        });
+    }
+
+    /**
+     * Statistics of reads served by joining a concurrent read of the same key.
+     * <p/>
+     * Concurrent calls to {@link #read(String)} and {@link #read(String, Object)} for the same key
+     * share a single read of the storage, as long as no write to that key completes meanwhile.
+     *
+     * @return snapshot of reads and coalesced reads since the book was opened
+     */
+    public ReadStats readStats() {
+        return flights.stats();
     }
 
     /**
      * Delete saved object for given key if it is exist.
      */
     public Completable delete(final String key) {
-        return Completable.fromAction(new Action0() {
+        return Completable.create(new CompletableOperation(writeScheduler) {
             @Override
-            public void call() {
-                book.delete(key);
+            void execute() {
+                remove(key);
             }
-        }).subscribeOn(scheduler);
+        });
+    }
+
+    private void remove(String key) {
+        synchronized (lockFor(key)) {
+            buffer.remove(key);
+            book.delete(key);
+            expiries.remove(key);
+            keyIndex.remove(key);
+            trackDelete(key);
+        }
+        flights.invalidate(key);
     }
 
     /**
@@ -216,12 +687,17 @@ public class RxPaperBook {
      * @return true if object with given key exists in Book storage, false otherwise
      */
     public Single<Boolean> exists(final String key) {
-        return Single.fromCallable(new Func0<Boolean>() {
+        return Single.create(new SingleOperation<Boolean>(readScheduler) {
             @Override
-            public Boolean call() {
-                return book.exist(key);
+            Boolean execute() {
+                requestSweep();
+                final WriteBuffer.PendingWrite pending = buffer.get(key);
+                if (null != pending) {
+                    return !pending.isExpired(scheduler.now());
+                }
+                return !expiries.isExpired(key, scheduler.now()) && book.exist(key);
             }
-        }).subscribeOn(scheduler);
+        });
     }
 
     /**
@@ -230,44 +706,643 @@ public class RxPaperBook {
      * @return all keys
      */
     public Single<List<String>> keys() {
-        return Single.fromCallable(new Func0<List<String>>() {
+        final List<PaperStore> shards = book.shards();
+        if (shards.size() == 1) {
+            return Single.create(new SingleOperation<List<String>>(readScheduler) {
+                @Override
+                List<String> execute() {
+                    final Collection<WriteBuffer.PendingWrite> pending = buffer.snapshot();
+                    return liveKeys(book.getAllKeys(), pending);
+                }
+            });
+        }
+        return Single.defer(new Func0<Single<List<String>>>() {
+            @Override
+            public Single<List<String>> call() {
+                final Collection<WriteBuffer.PendingWrite> pending = buffer.snapshot();
+                return Observable.from(shards).flatMap(
+                        new Func1<PaperStore, Observable<List<String>>>() {
+                    @Override
+                    public Observable<List<String>> call(final PaperStore shard) {
+                        return Observable.fromCallable(new Func0<List<String>>() {
+                            @Override
+                            public List<String> call() {
+                                return shard.getAllKeys();
+                            }
+                        }).subscribeOn(readScheduler);
+                    }
+                }).collect(new Func0<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        return new ArrayList<>();
+                    }
+                }, new Action2<List<String>, List<String>>() {
+                    @Override
+                    public void call(List<String> keys, List<String> shardKeys) {
+                        keys.addAll(shardKeys);
+                    }
+                }).map(new Func1<List<String>, List<String>>() {
+                    @Override
+                    public List<String> call(List<String> keys) {
+                        return liveKeys(keys, pending);
+                    }
+                }).toSingle();
+            }
+        });
+    }
+
+    /**
+     * @param pending writes waiting to be saved, taken before listing the stored keys
+     */
+    private List<String> liveKeys(List<String> stored,
+            Collection<WriteBuffer.PendingWrite> pending) {
+        requestSweep();
+        final long now = scheduler.now();
+        return WriteBuffer.addKeys(expiries.filterExpired(stored, now), pending, now);
+    }
+
+    /**
+     * Returns the keys starting with a prefix, i.e. "user:42:" for all keys of that user.
+     * <p/>
+     * Keys are kept sorted in memory after the first call on a book, so the cost depends on the
+     * number of matching keys rather than the size of the book. Changes done through any instance
+     * in this process are reflected, but keys written by other processes are only found while
+     * {@link #watchExternalChanges()} is running.
+     *
+     * @param prefix start of the keys, an empty prefix matches all keys
+     * @return matching keys in order
+     */
+    public Single<List<String>> keys(final String prefix) {
+        return Single.create(new SingleOperation<List<String>>(readScheduler) {
+            @Override
+            List<String> execute() {
+                return liveKeys(prefix);
+            }
+        });
+    }
+
+    private List<String> liveKeys(String prefix) {
+        requestSweep();
+        final Set<String> matching = pendingKeys(prefix);
+        matching.addAll(keyIndex.withPrefix(prefix));
+        final long now = scheduler.now();
+        final List<String> live = new ArrayList<>(matching.size());
+        for (String key : matching) {
+            final WriteBuffer.PendingWrite pending = buffer.get(key);
+            if (null == pending ? !expiries.isExpired(key, now) && book.exist(key)
+                    : !pending.isExpired(now)) {
+                live.add(key);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Taken before looking up the index, so writes saved meanwhile are in one of both.
+     *
+     * @return sorted keys of pending writes starting with the prefix
+     */
+    private Set<String> pendingKeys(String prefix) {
+        final Set<String> matching = new TreeSet<>();
+        for (WriteBuffer.PendingWrite write : buffer.snapshot()) {
+            if (write.key.startsWith(prefix)) {
+                matching.add(write.key);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Reads all objects whose key starts with a prefix.
+     * <p/>
+     * Matching keys are found as in {@link #keys(String)}, and their objects are read in parallel
+     * on the provided scheduler, up to one per available core.
+     *
+     * @param prefix start of the keys, an empty prefix matches all keys
+     * @return map from key to saved object, in key order
+     */
+    public <T> Single<Map<String, T>> readPrefix(final String prefix) {
+        return keys(prefix).toObservable().flatMapIterable(
+                new Func1<List<String>, Iterable<String>>() {
+            @Override
+            public Iterable<String> call(List<String> keys) {
+                return keys;
+            }
+        }).flatMap(new Func1<String, Observable<Update>>() {
             @Override
-            public List<String> call() {
-                return book.getAllKeys();
+            public Observable<Update> call(final String key) {
+                return Single.create(new SingleOperation<Update>(readScheduler) {
+                    @Override
+                    Update execute() {
+                        final Object value = readValid(key);
+                        if (null == value) {
+                            return null;
+                        }
+                        trackRead(key);
+                        return new Update(key, value);
+                    }
+                }).toObservable();
             }
-        }).subscribeOn(scheduler);
+        }, SCAN_PARALLELISM).collect(new Func0<Map<String, T>>() {
+            @Override
+            public Map<String, T> call() {
+                return new TreeMap<>();
+            }
+        }, new Action2<Map<String, T>, Update>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void call(Map<String, T> values, Update read) {
+                if (null != read) {
+                    values.put(read.key, (T)read.value);
+                }
+            }
+        }).toSingle();
+    }
+
+    /**
+     * Deletes all objects whose key starts with a prefix.
+     * <p/>
+     * Matching keys are found as in {@link #keys(String)} and deleted together in a single
+     * operation on the provided scheduler.
+     *
+     * @param prefix start of the keys, an empty prefix matches all keys
+     */
+    public Completable deletePrefix(String prefix) {
+        return deletePrefix(prefix, false);
+    }
+
+    /**
+     * Deletes all objects whose key starts with a prefix, optionally listing the whole storage to
+     * also find keys written by other processes while not watching them with
+     * {@link #watchExternalChanges()}.
+     * <p/>
+     * Listing the storage takes time proportional to the size of the book rather than the number
+     * of matching keys.
+     *
+     * @param prefix start of the keys, an empty prefix matches all keys
+     * @param listStorage whether to list the storage for matching keys missing in memory
+     */
+    public Completable deletePrefix(final String prefix, final boolean listStorage) {
+        return Completable.create(new CompletableOperation(writeScheduler) {
+            @Override
+            void execute() {
+                final Set<String> matching = pendingKeys(prefix);
+                matching.addAll(keyIndex.withPrefix(prefix));
+                if (listStorage) {
+                    for (String key : book.getAllKeys()) {
+                        if (key.startsWith(prefix)) {
+                            matching.add(key);
+                        }
+                    }
+                }
+                for (String key : matching) {
+                    remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads every object in {@link Book} and emits the ones matching the predicate.
+     * <p/>
+     * Entries are read and deserialized in parallel on the provided scheduler, up to one per
+     * available core, and matches are emitted in the order they are found rather than key order.
+     * Unsubscribing early, i.e. using {@link Observable#first()}, stops any outstanding reads.
+     * <p/>
+     * Objects of a different type than the predicate expects fail with {@link ClassCastException}.
+     *
+     * @param predicate filter applied to each saved object
+     * @return cold observable of matching objects
+     */
+    public <T> Observable<T> scan(final Func1<T, Boolean> predicate) {
+        return keys().toObservable().flatMapIterable(new Func1<List<String>, Iterable<String>>() {
+            @Override
+            public Iterable<String> call(List<String> keys) {
+                return keys;
+            }
+        }).flatMap(new Func1<String, Observable<T>>() {
+            @Override
+            public Observable<T> call(final String key) {
+                return Single.create(new SingleOperation<T>(readScheduler) {
+                    @Override
+                    T execute() {
+                        return readValid(key);
+                    }
+                }).toObservable();
+            }
+        }, SCAN_PARALLELISM).filter(new Func1<T, Boolean>() {
+            @Override
+            public Boolean call(T value) {
+                return null != value && predicate.call(value);
+            }
+        });
     }
 
     /**
      * Destroys all data saved in {@link Book}.
      */
     public Completable destroy() {
-        return Completable.fromAction(new Action0() {
+        final Completable pending = Completable.fromAction(new Action0() {
             @Override
             public void call() {
-                book.destroy();
+                buffer.clear();
             }
-        }).subscribeOn(scheduler);
+        }).subscribeOn(writeScheduler);
+        final Observable<Completable> shards = Observable.from(book.shards())
+                .map(new Func1<PaperStore, Completable>() {
+            @Override
+            public Completable call(final PaperStore shard) {
+                return Completable.fromAction(new Action0() {
+                    @Override
+                    public void call() {
+                        shard.destroy();
+                    }
+                }).subscribeOn(writeScheduler);
+            }
+        });
+        final Completable indexes = Completable.fromAction(new Action0() {
+            @Override
+            public void call() {
+                flights.invalidateAll();
+                keyIndex.invalidate();
+                expiries.destroy();
+                if (null != tracker) {
+                    tracker.clear();
+                }
+            }
+        });
+        return pending.andThen(Completable.merge(shards)).andThen(indexes);
+    }
+
+    private Object lockFor(String key) {
+        return keyLocks[(key.hashCode() & Integer.MAX_VALUE) % KEY_LOCKS];
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T readValid(String key) {
+        requestSweep();
+        final WriteBuffer.PendingWrite pending = buffer.get(key);
+        if (null != pending) {
+            return pending.isExpired(scheduler.now()) ? null : (T)pending.value;
+        }
+        if (expiries.isExpired(key, scheduler.now())) {
+            return null;
+        }
+        return book.read(key);
+    }
+
+    private WriteBuffer.PendingWrite pending(String key, Object value, long ttlMillis) {
+        return new WriteBuffer.PendingWrite(key, value, deadline(ttlMillis));
+    }
+
+    private void enqueue(String key, Object value, long ttlMillis) {
+        buffer.put(pending(key, value, ttlMillis));
+    }
+
+    private long deadline(long ttlMillis) {
+        if (ttlMillis < 0) {
+            return WriteBuffer.NO_DEADLINE;
+        }
+        final long now = scheduler.now();
+        // the longest time to live possible rather than overflowing into the past
+        return ttlMillis >= WriteBuffer.NO_DEADLINE - now ? WriteBuffer.NO_DEADLINE - 1
+                : now + ttlMillis;
+    }
+
+    private void commit(String key, Object value, long deadline) {
+        synchronized (lockFor(key)) {
+            externalChanges.onLocalWrite(key);
+            if (deadline == WriteBuffer.NO_DEADLINE) {
+                book.write(key, value);
+                expiries.remove(key);
+            } else {
+                expiries.put(key, deadline);
+                book.write(key, value);
+            }
+            keyIndex.add(key);
+            trackWrite(key);
+        }
+        flights.invalidate(key);
     }
 
     /**
-     * Naive update subscription for saved objects. Subscription is filtered by key and type.
+     * Sends the change to observers, skipping the allocation when there are none.
+     */
+    private void publish(String key, Object value) {
+        if (updates.hasObservers()) {
+            updates.onNext(new Update(key, value));
+        }
+    }
+
+    /**
+     * Saves every pending write that hasn't been replaced or deleted meanwhile, and completes the
+     * subscribers waiting for them. Writes that fail to be saved stay pending for the next flush.
+     *
+     * @return the first error saving the writes, or null if all were saved
+     */
+    private Throwable flushPending() {
+        final List<CompletableSubscriber> waiting = buffer.takeWaiting();
+        Throwable error = null;
+        for (WriteBuffer.PendingWrite write : buffer.pending()) {
+            try {
+                synchronized (lockFor(write.key)) {
+                    if (buffer.get(write.key) != write) {
+                        continue;
+                    }
+                    commit(write.key, write.value, write.deadline);
+                    buffer.remove(write);
+                }
+            } catch (Throwable e) {
+                Exceptions.throwIfFatal(e);
+                error = null == error ? e : error;
+                continue;
+            }
+            if (durability == Durability.GROUP_COMMIT) {
+                publish(write.key, write.value);
+            }
+        }
+        for (CompletableSubscriber subscriber : waiting) {
+            if (null == error) {
+                subscriber.onCompleted();
+            } else {
+                subscriber.onError(error);
+            }
+        }
+        requestSweep();
+        requestEviction();
+        return error;
+    }
+
+    private void requestGroupCommit() {
+        final Scheduler.Worker worker = writeScheduler.createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    // the waiting subscribers receive the error
+                    flushPending();
+                } finally {
+                    worker.unsubscribe();
+                }
+            }
+        }, GROUP_COMMIT_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void requestFlush() {
+        runBatches(flushing, new Func0<Boolean>() {
+            @Override
+            public Boolean call() {
+                final Throwable error = flushPending();
+                if (null != error) {
+                    throw Exceptions.propagate(error);
+                }
+                return false;
+            }
+        });
+    }
+
+    private void trackWrite(String key) {
+        if (null != tracker) {
+            tracker.onWrite(key, scheduler.now());
+        }
+    }
+
+    private void trackRead(String key) {
+        if (null != tracker) {
+            tracker.onRead(key, scheduler.now());
+        }
+    }
+
+    private void trackDelete(String key) {
+        if (null != tracker) {
+            tracker.onDelete(key);
+        }
+    }
+
+    private Scheduler housekeepingScheduler() {
+        return null == lanes ? scheduler : lanes.lane(Priority.BACKGROUND);
+    }
+
+    private void requestSweep() {
+        if (expiries.hasExpired(scheduler.now())) {
+            runBatches(sweeping, new Func0<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return sweepBatch();
+                }
+            });
+        }
+    }
+
+    private void requestEviction() {
+        if (null != tracker && tracker.isOverBudget()) {
+            runBatches(evicting, new Func0<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return evictBatch();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs batch on the scheduler until it returns false, unless a previous request is running.
+     * <p/>
+     * Nobody is subscribed to the batches, so a storage error is logged and stops them, leaving the
+     * failed objects for the next request.
+     */
+    private void runBatches(final AtomicBoolean running, final Func0<Boolean> batch) {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        final Scheduler.Worker worker = housekeepingScheduler().createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                boolean more = false;
+                try {
+                    more = batch.call();
+                } catch (Throwable e) {
+                    Exceptions.throwIfFatal(e);
+                    Log.w(TAG, "Background work stopped by a storage error", e);
+                } finally {
+                    if (more) {
+                        worker.schedule(this);
+                    } else {
+                        running.set(false);
+                        worker.unsubscribe();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes up to {@link #SWEEP_BATCH} expired objects.
+     *
+     * @return whether there may be more expired objects left
+     */
+    private boolean sweepBatch() {
+        final List<String> expired = expiries.expired(scheduler.now(), SWEEP_BATCH);
+        for (int i = 0; i < expired.size(); i++) {
+            try {
+                sweep(expired.get(i));
+            } catch (RuntimeException e) {
+                // left for the next batch, with the keys not swept yet
+                for (String key : expired.subList(i, expired.size())) {
+                    expiries.retry(key);
+                }
+                throw e;
+            }
+        }
+        return expired.size() == SWEEP_BATCH;
+    }
+
+    private void sweep(String key) {
+        synchronized (lockFor(key)) {
+            // the deadline may have been replaced by another process since it was cached
+            if (expiries.isExpired(key, scheduler.now())
+                    && expiries.isExpiredInStore(key, scheduler.now())) {
+                book.delete(key);
+                expiries.remove(key);
+                keyIndex.remove(key);
+                trackDelete(key);
+            }
+        }
+        flights.invalidate(key);
+    }
+
+    /**
+     * Evicts objects until the book is back under budget.
+     *
+     * @return whether concurrent writes took the book over budget again
+     */
+    private boolean evictBatch() {
+        for (EvictionTracker.Victim victim : tracker.victims()) {
+            final String key = victim.key;
+            final long size;
+            synchronized (lockFor(key)) {
+                // skipped if written or read since selected, the next batch selects again
+                size = tracker.onEvict(victim);
+                if (size < 0) {
+                    continue;
+                }
+                try {
+                    book.delete(key);
+                } catch (RuntimeException e) {
+                    tracker.onEvictFailed(victim);
+                    throw e;
+                }
+                expiries.remove(key);
+                keyIndex.remove(key);
+            }
+            flights.invalidate(key);
+            tracker.onEvicted(size);
+            publish(key, new Eviction(key, size));
+        }
+        return tracker.isOverBudget();
+    }
+
+    /**
+     * Statistics of a book opened with
+     * {@link #withBounds(String, long, int, EvictionPolicy, Scheduler)}.
+     *
+     * @return snapshot of current usage and evictions, or null if the book is not bounded
+     */
+    public EvictionStats evictionStats() {
+        return null == tracker ? null : tracker.stats();
+    }
+
+    /**
+     * Subscription to objects evicted from a book opened with
+     * {@link #withBounds(String, long, int, EvictionPolicy, Scheduler)}.
+     * <p/>
+     * Evictions of a single key can also be observed using {@link #observe(String, Class)} with
+     * {@link Eviction}.
      *
-     * @param key object key
      * @return hot observable
      */
-    public <T> Observable<T> observe(final String key, final Class<T> clazz) {
-        return updates.asObservable().filter(new Func1<Pair<String, ?>, Boolean>() {
+    public Observable<Eviction> observeEvictions() {
+        return updates.lift(UpdateFilter.values(null, Eviction.class));
+    }
+
+    /**
+     * Starts sending writes done to this book by other processes, or other instances on the same
+     * book name, to the observers of this instance.
+     * <p/>
+     * Changes are detected by watching the book's folder, and are sent together every few
+     * milliseconds after reading the new objects on the scheduler. Deletes done elsewhere are not
+     * sent. Only changes to the objects are detected: time to live, eviction and durability
+     * bookkeeping of this instance doesn't know about them. Objects that can't be read, like files
+     * still being written or classes unknown to this process, are logged and skipped.
+     *
+     * @return subscription to stop watching
+     */
+    public Subscription watchExternalChanges() {
+        final CompositeSubscription subscription = new CompositeSubscription();
+        externalChanges.onWatchStarted();
+        subscription.add(Subscriptions.create(new Action0() {
             @Override
-            public Boolean call(Pair<String, ?> stringPair) {
-                return stringPair.first.equals(key);
+            public void call() {
+                externalChanges.onWatchStopped();
             }
-        }).map(new Func1<Pair<String, ?>, Object>() {
+        }));
+        final Action1<String> onWritten = new Action1<String>() {
             @Override
-            public Object call(Pair<String, ?> stringPair) {
-                return stringPair.second;
+            public void call(String fileName) {
+                if (externalChanges.onFileWritten(fileName)) {
+                    requestExternalChanges();
+                }
             }
-        }).ofType(clazz);
+        };
+        for (PaperStore shard : book.shards()) {
+            subscription.add(watcher.watch(shard.getPath(), onWritten));
+        }
+        return subscription;
+    }
+
+    private void requestExternalChanges() {
+        if (!publishingExternalChanges.compareAndSet(false, true)) {
+            return;
+        }
+        final Scheduler.Worker worker = housekeepingScheduler().createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                publishingExternalChanges.set(false);
+                try {
+                    for (String key : externalChanges.drain()) {
+                        flights.invalidate(key);
+                        final Object value;
+                        try {
+                            trackWrite(key);
+                            value = readValid(key);
+                        } catch (Throwable e) {
+                            // i.e. a file still being written, or a class unknown to this process
+                            Exceptions.throwIfFatal(e);
+                            Log.w(TAG, "Skipped external change to " + key, e);
+                            continue;
+                        }
+                        if (null != value) {
+                            keyIndex.add(key);
+                            publish(key, value);
+                        }
+                    }
+                } finally {
+                    worker.unsubscribe();
+                }
+            }
+        }, EXTERNAL_CHANGES_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Naive update subscription for saved objects. Subscription is filtered by key and type.
+     *
+     * @param key object key
+     * @return hot observable
+     */
+    public <T> Observable<T> observe(final String key, final Class<T> clazz) {
+        return updates.lift(UpdateFilter.values(key, clazz));
     }
 
     /**
@@ -275,23 +1350,36 @@ public class RxPaperBook {
      * <p/>
      * This method will return all objects for a key casted unsafely, and throw
      * {@link ClassCastException} if types do not match. For a safely checked and filtered version
-     * use {@link this#observe(String, Class)}.
+     * use {@link this#observe(String, Class)}. {@link Eviction} notifications are not included.
      *
      * @param key object key
      * @return hot observable
      */
-    @SuppressWarnings("unchecked")
     public <T> Observable<T> observeUnsafe(final String key) {
-        return updates.asObservable().filter(new Func1<Pair<String, ?>, Boolean>() {
-            @Override
-            public Boolean call(Pair<String, ?> stringPair) {
-                return stringPair.first.equals(key);
-            }
-        }).map(new Func1<Pair<String, ?>, T>() {
-            @Override
-            public T call(Pair<String, ?> stringPair) {
-                return (T)stringPair.second;
-            }
-        });
+        return updates.lift(UpdateFilter.<T> values(key, null));
+    }
+
+    /**
+     * Naive update subscription for saved objects whose key starts with a prefix, i.e. "user:42:"
+     * for all objects of that user. Subscription is filtered by type.
+     *
+     * @param prefix start of the keys, an empty prefix matches all keys
+     * @return hot observable of keys and objects
+     */
+    public <T> Observable<Map.Entry<String, T>> observePrefix(final String prefix,
+            final Class<T> clazz) {
+        return updates.lift(UpdateFilter.entries(prefix, clazz));
+    }
+
+    /**
+     * Naive update subscription for saved objects whose key starts with a prefix, i.e. "user:42:"
+     * for all objects of that user, whatever their type. {@link Eviction} notifications are not
+     * included.
+     *
+     * @param prefix start of the keys, an empty prefix matches all keys
+     * @return hot observable of keys and objects
+     */
+    public Observable<Map.Entry<String, Object>> observePrefix(final String prefix) {
+        return updates.lift(UpdateFilter.<Object> entries(prefix, null));
     }
 }
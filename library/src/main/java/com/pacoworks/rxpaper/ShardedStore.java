@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link PaperStore} that spreads its keys over several stores by key hash, keeping every folder
+ * small enough for file system operations to stay fast.
+ * <p/>
+ * {@link String#hashCode()} is specified by the language, so keys land on the same shard across
+ * runs as long as the number of shards doesn't change.
+ *
+ * @author pakoito
+ */
+final class ShardedStore implements PaperStore {
+    private final PaperStore[] shards;
+
+    private final List<PaperStore> shardList;
+
+    ShardedStore(PaperStore... shards) {
+        if (shards.length == 0) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = shards;
+        this.shardList = Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    private PaperStore shardFor(String key) {
+        return shards[(key.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    @Override
+    public <T> void write(String key, T value) {
+        shardFor(key).write(key, value);
+    }
+
+    @Override
+    public <T> T read(String key) {
+        return shardFor(key).read(key);
+    }
+
+    @Override
+    public boolean exist(String key) {
+        return shardFor(key).exist(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        shardFor(key).delete(key);
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        final List<String> keys = new ArrayList<>();
+        for (PaperStore shard : shards) {
+            keys.addAll(shard.getAllKeys());
+        }
+        return keys;
+    }
+
+    @Override
+    public void destroy() {
+        for (PaperStore shard : shards) {
+            shard.destroy();
+        }
+    }
+
+    @Override
+    public long size(String key) {
+        return shardFor(key).size(key);
+    }
+
+    @Override
+    public long lastModified(String key) {
+        return shardFor(key).lastModified(key);
+    }
+
+    @Override
+    public String getPath() {
+        return null;
+    }
+
+    @Override
+    public List<PaperStore> shards() {
+        return shardList;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Scheduler;
+import rx.Single;
+import rx.SingleSubscriber;
+import rx.Subscription;
+import rx.exceptions.Exceptions;
+import rx.functions.Action0;
+import rx.functions.Func1;
+
+/**
+ * Coalesces concurrent reads of the same key into a single read of the storage.
+ * <p/>
+ * A read leaves the in-flight table right after reading the storage, so anyone subscribing later
+ * reads again. Writes {@link #invalidate(String)} their key once saved, so a read that may have
+ * started before the write is never shared with readers arriving after it. A read nobody waits
+ * for anymore is cancelled if it hasn't started yet.
+ * <p/>
+ * Only reads scheduled on the same scheduler are shared, so a foreground read never waits behind
+ * a background one queued on a book with priority lanes.
+ *
+ * @author pakoito
+ */
+final class SingleFlight {
+    private final ConcurrentMap<Scheduler, ConcurrentMap<String, Flight>> schedulers =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong reads = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final Func1<String, Object> reader;
+
+    SingleFlight(Func1<String, Object> reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Source of a {@link Single} sharing the read of its key with concurrent subscribers.
+     * <p/>
+     * The value read, or null if not found, is passed to {@link #onRead(Object)} once per
+     * subscriber.
+     */
+    abstract static class Read<T> implements Single.OnSubscribe<T> {
+        private final SingleFlight flights;
+
+        private final String key;
+
+        private final Scheduler scheduler;
+
+        Read(SingleFlight flights, String key, Scheduler scheduler) {
+            this.flights = flights;
+            this.key = key;
+            this.scheduler = scheduler;
+        }
+
+        /**
+         * @param read value read, or null if not found
+         * @return value to emit
+         */
+        abstract T onRead(Object read);
+
+        @Override
+        public final void call(SingleSubscriber<? super T> subscriber) {
+            final Waiter<T> waiter = new Waiter<>(this, subscriber);
+            subscriber.add(waiter);
+            flights.join(key, scheduler, waiter);
+        }
+    }
+
+    private static final class Waiter<T> implements Subscription {
+        private final Read<T> read;
+
+        private final SingleSubscriber<? super T> subscriber;
+
+        private volatile Flight flight;
+
+        private volatile boolean unsubscribed;
+
+        Waiter(Read<T> read, SingleSubscriber<? super T> subscriber) {
+            this.read = read;
+            this.subscriber = subscriber;
+        }
+
+        void deliver(Object value, Throwable error) {
+            if (null != error) {
+                subscriber.onError(error);
+                return;
+            }
+            final T result;
+            try {
+                result = read.onRead(value);
+            } catch (Throwable e) {
+                Exceptions.throwIfFatal(e);
+                subscriber.onError(e);
+                return;
+            }
+            subscriber.onSuccess(result);
+        }
+
+        @Override
+        public void unsubscribe() {
+            unsubscribed = true;
+            final Flight current = flight;
+            if (null != current) {
+                current.leave(this);
+            }
+        }
+
+        @Override
+        public boolean isUnsubscribed() {
+            return unsubscribed;
+        }
+    }
+
+    /**
+     * Single read of a key, scheduled on its own worker, and the readers waiting for it.
+     */
+    private final class Flight implements Action0 {
+        private final String key;
+
+        private final ConcurrentMap<String, Flight> flights;
+
+        private final Scheduler.Worker worker;
+
+        private List<Waiter<?>> waiters = new ArrayList<>(2);
+
+        private boolean started;
+
+        private boolean cancelled;
+
+        private boolean done;
+
+        private Object value;
+
+        private Throwable error;
+
+        Flight(String key, ConcurrentMap<String, Flight> flights, Scheduler scheduler) {
+            this.key = key;
+            this.flights = flights;
+            worker = scheduler.createWorker();
+        }
+
+        /**
+         * @return false if the flight was cancelled and can't be joined anymore
+         */
+        boolean join(Waiter<?> waiter) {
+            synchronized (this) {
+                if (cancelled) {
+                    return false;
+                }
+                if (!done) {
+                    waiters.add(waiter);
+                    waiter.flight = this;
+                    if (waiter.unsubscribed) {
+                        leave(waiter);
+                    }
+                    return true;
+                }
+            }
+            // joined between reading the storage and leaving the table
+            waiter.deliver(value, error);
+            return true;
+        }
+
+        void leave(Waiter<?> waiter) {
+            synchronized (this) {
+                if (done || !waiters.remove(waiter) || !waiters.isEmpty() || started) {
+                    return;
+                }
+                cancelled = true;
+            }
+            flights.remove(key, this);
+            worker.unsubscribe();
+        }
+
+        @Override
+        public void call() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                started = true;
+            }
+            try {
+                value = reader.call(key);
+            } catch (Throwable e) {
+                Exceptions.throwIfFatal(e);
+                error = e;
+            } finally {
+                flights.remove(key, this);
+            }
+            final List<Waiter<?>> delivered;
+            synchronized (this) {
+                done = true;
+                delivered = waiters;
+                waiters = null;
+            }
+            try {
+                for (Waiter<?> waiter : delivered) {
+                    if (!waiter.unsubscribed) {
+                        waiter.deliver(value, error);
+                    }
+                }
+            } finally {
+                worker.unsubscribe();
+            }
+        }
+    }
+
+    private ConcurrentMap<String, Flight> flights(Scheduler scheduler) {
+        final ConcurrentMap<String, Flight> current = schedulers.get(scheduler);
+        if (null != current) {
+            return current;
+        }
+        final ConcurrentMap<String, Flight> created = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, Flight> raced = schedulers.putIfAbsent(scheduler, created);
+        return null == raced ? created : raced;
+    }
+
+    private void join(String key, Scheduler scheduler, Waiter<?> waiter) {
+        reads.incrementAndGet();
+        final ConcurrentMap<String, Flight> flights = flights(scheduler);
+        while (!waiter.unsubscribed) {
+            final Flight current = flights.get(key);
+            if (null != current) {
+                if (current.join(waiter)) {
+                    coalesced.incrementAndGet();
+                    return;
+                }
+                flights.remove(key, current);
+                continue;
+            }
+            final Flight flight = new Flight(key, flights, scheduler);
+            if (null == flights.putIfAbsent(key, flight)) {
+                flight.join(waiter);
+                flight.worker.schedule(flight);
+                return;
+            }
+            flight.worker.unsubscribe();
+        }
+    }
+
+    void invalidate(String key) {
+        for (ConcurrentMap<String, Flight> flights : schedulers.values()) {
+            flights.remove(key);
+        }
+    }
+
+    void invalidateAll() {
+        for (ConcurrentMap<String, Flight> flights : schedulers.values()) {
+            flights.clear();
+        }
+    }
+
+    ReadStats stats() {
+        return new ReadStats(reads.get(), coalesced.get());
+    }
+}
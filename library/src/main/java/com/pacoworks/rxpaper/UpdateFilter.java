@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.util.Map;
+
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * Operator selecting {@link Update}s for observers, i.e. the values of a key.
+ * <p/>
+ * Replaces chaining {@link Observable#filter(rx.functions.Func1)},
+ * {@link Observable#map(rx.functions.Func1)} and {@link Observable#ofType(Class)}, so each
+ * subscription allocates a single subscriber and updates pass through without allocating.
+ *
+ * @author pakoito
+ */
+abstract class UpdateFilter<R> implements Observable.Operator<R, Update> {
+    /**
+     * @return what to emit for the update, or null to skip it
+     */
+    abstract R select(Update update);
+
+    /**
+     * Values of the updates for a key, or for any key if null, that are of the given type, or of
+     * any type but {@link Eviction} if null.
+     */
+    static <T> UpdateFilter<T> values(final String key, final Class<T> type) {
+        return new UpdateFilter<T>() {
+            @Override
+            T select(Update update) {
+                if (null != key && !key.equals(update.key)) {
+                    return null;
+                }
+                return accepts(type, update.value) ? UpdateFilter.<T> cast(update.value) : null;
+            }
+        };
+    }
+
+    /**
+     * Updates for keys starting with a prefix that are of the given type, or of any type but
+     * {@link Eviction} if null.
+     */
+    static <T> UpdateFilter<Map.Entry<String, T>> entries(final String prefix,
+            final Class<T> type) {
+        return new UpdateFilter<Map.Entry<String, T>>() {
+            @Override
+            Map.Entry<String, T> select(Update update) {
+                if (!update.key.startsWith(prefix) || !accepts(type, update.value)) {
+                    return null;
+                }
+                return cast(update);
+            }
+        };
+    }
+
+    private static boolean accepts(Class<?> type, Object value) {
+        return null == type ? !(value instanceof Eviction) : type.isInstance(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value) {
+        return (T)value;
+    }
+
+    @Override
+    public Subscriber<? super Update> call(final Subscriber<? super R> child) {
+        // shares the subscriptions and requests of the child, like the operators it replaces
+        return new Subscriber<Update>(child) {
+            @Override
+            public void onNext(Update update) {
+                final R selected = select(update);
+                if (null != selected) {
+                    child.onNext(selected);
+                } else {
+                    request(1);
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                child.onError(e);
+            }
+
+            @Override
+            public void onCompleted() {
+                child.onCompleted();
+            }
+        };
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import rx.CompletableSubscriber;
+
+/**
+ * Writes waiting to be saved to disk by a book that is not {@link Durability#STRICT}, and the
+ * subscribers waiting for them to be saved.
+ * <p/>
+ * Pending writes are visible to reads before being saved. Each key only keeps its latest write.
+ *
+ * @author pakoito
+ */
+final class WriteBuffer {
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    static final class PendingWrite {
+        final String key;
+
+        final Object value;
+
+        final long deadline;
+
+        PendingWrite(String key, Object value, long deadline) {
+            this.key = key;
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        boolean isExpired(long now) {
+            return deadline <= now;
+        }
+    }
+
+    private final ConcurrentMap<String, PendingWrite> pending = new ConcurrentHashMap<>();
+
+    private List<CompletableSubscriber> waiting = new ArrayList<>();
+
+    PendingWrite get(String key) {
+        return pending.get(key);
+    }
+
+    void put(PendingWrite write) {
+        pending.put(write.key, write);
+    }
+
+    void remove(String key) {
+        pending.remove(key);
+    }
+
+    void remove(PendingWrite write) {
+        pending.remove(write.key, write);
+    }
+
+    Collection<PendingWrite> pending() {
+        return pending.values();
+    }
+
+    int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return whether the subscriber is the first one waiting for the next save
+     */
+    synchronized boolean await(CompletableSubscriber subscriber) {
+        waiting.add(subscriber);
+        return waiting.size() == 1;
+    }
+
+    synchronized List<CompletableSubscriber> takeWaiting() {
+        final List<CompletableSubscriber> taken = waiting;
+        waiting = new ArrayList<>();
+        return taken;
+    }
+
+    /**
+     * Taken before listing the saved keys, so writes saved meanwhile are in one of both.
+     *
+     * @return copy of the current pending writes
+     */
+    Collection<PendingWrite> snapshot() {
+        if (pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * @param snapshot pending writes taken with {@link #snapshot()} before listing the keys
+     * @return keys including the ones of pending writes that haven't expired
+     */
+    static List<String> addKeys(List<String> keys, Collection<PendingWrite> snapshot, long now) {
+        if (snapshot.isEmpty()) {
+            return keys;
+        }
+        final Set<String> saved = new HashSet<>(keys);
+        final List<String> all = new ArrayList<>(keys);
+        for (PendingWrite write : snapshot) {
+            if (!write.isExpired(now) && !saved.contains(write.key)) {
+                all.add(write.key);
+            }
+        }
+        return all;
+    }
+
+    void clear() {
+        pending.clear();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the selection of objects to evict, on {@link MemoryStore}.
+ */
+public class EvictionTrackerTest {
+    private final PaperStore store = new MemoryStore();
+
+    private final EvictionTracker tracker = new EvictionTracker(store, Long.MAX_VALUE, 2,
+            EvictionPolicy.LRU);
+
+    private EvictionTracker.Victim victim;
+
+    @Before
+    public void setUp() throws Exception {
+        for (String key : new String[] { "a", "b", "c" }) {
+            store.write(key, key);
+            tracker.onWrite(key, store.getAllKeys().size());
+        }
+        final List<EvictionTracker.Victim> victims = tracker.victims();
+        Assert.assertEquals(1, victims.size());
+        victim = victims.get(0);
+        Assert.assertEquals("a", victim.key);
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        Assert.assertEquals(store.size("a"), tracker.onEvict(victim));
+        Assert.assertEquals(2, tracker.stats().getEntries());
+        Assert.assertEquals(-1, tracker.onEvict(victim));
+    }
+
+    @Test
+    public void testEvictRewritten() throws Exception {
+        tracker.onWrite("a", 4);
+        Assert.assertEquals(-1, tracker.onEvict(victim));
+        Assert.assertEquals(3, tracker.stats().getEntries());
+        Assert.assertEquals("b", tracker.victims().get(0).key);
+    }
+
+    @Test
+    public void testEvictRead() throws Exception {
+        tracker.onRead("a", 4);
+        Assert.assertEquals(-1, tracker.onEvict(victim));
+        Assert.assertEquals(3, tracker.stats().getEntries());
+        Assert.assertEquals("b", tracker.victims().get(0).key);
+    }
+}
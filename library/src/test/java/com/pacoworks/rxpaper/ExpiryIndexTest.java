@@ -0,0 +1,69 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the expiry deadlines, on {@link MemoryStore}.
+ */
+public class ExpiryIndexTest {
+    private static final long NOW = 100;
+
+    private static final int FAR_KEYS = 20000;
+
+    private static final int ATTEMPTS = 50;
+
+    @Test
+    public void testPutDuringSweep() throws Exception {
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            final ExpiryIndex expiries = new ExpiryIndex(new MemoryStore());
+            for (int i = 0; i < FAR_KEYS; i++) {
+                expiries.put("far" + i, NOW * 10);
+            }
+            final CountDownLatch started = new CountDownLatch(1);
+            final Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        started.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    expiries.put("near", NOW / 2);
+                }
+            });
+            writer.start();
+            started.countDown();
+            final List<String> expired = expiries.expired(NOW, Integer.MAX_VALUE);
+            writer.join();
+            // unless the scan found it, the deadline put meanwhile must be the next one
+            Assert.assertTrue("Lost the deadline put during attempt " + attempt,
+                    expired.contains("near") || expiries.hasExpired(NOW));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link PaperStore} wrapping another one whose writes, deletes and reads of some keys can be made
+ * to fail, to test storage errors.
+ *
+ * @author pakoito
+ */
+final class FailingStore implements PaperStore {
+    private final PaperStore store;
+
+    volatile boolean failWrites;
+
+    /** Keys whose reads fail. */
+    final Set<String> failReads = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    volatile boolean failDeletes;
+
+    FailingStore(PaperStore store) {
+        this.store = store;
+    }
+
+    private static void fail(boolean failing, String operation, String key) {
+        if (failing) {
+            throw new IllegalStateException("Failed to " + operation + " " + key);
+        }
+    }
+
+    @Override
+    public <T> void write(String key, T value) {
+        fail(failWrites, "write", key);
+        store.write(key, value);
+    }
+
+    @Override
+    public <T> T read(String key) {
+        fail(failReads.contains(key), "read", key);
+        return store.read(key);
+    }
+
+    @Override
+    public boolean exist(String key) {
+        return store.exist(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        fail(failDeletes, "delete", key);
+        store.delete(key);
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        return store.getAllKeys();
+    }
+
+    @Override
+    public void destroy() {
+        store.destroy();
+    }
+
+    @Override
+    public long size(String key) {
+        return store.size(key);
+    }
+
+    @Override
+    public long lastModified(String key) {
+        return store.lastModified(key);
+    }
+
+    @Override
+    public String getPath() {
+        return store.getPath();
+    }
+
+    @Override
+    public List<PaperStore> shards() {
+        return Collections.<PaperStore> singletonList(this);
+    }
+}
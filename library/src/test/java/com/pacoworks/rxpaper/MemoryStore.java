@@ -0,0 +1,164 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link PaperStore} keeping objects in memory, standing in for Paper on a plain JVM.
+ * <p/>
+ * Each operation can be delayed to simulate the cost of the disk. Given a folder, every write also
+ * moves an empty file named like Paper's into it, so the folder can be watched for changes.
+ *
+ * @author pakoito
+ */
+final class MemoryStore implements PaperStore {
+    private static final long ENTRY_SIZE = 64;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final long latencyNanos;
+
+    private final File directory;
+
+    private static final class Entry {
+        final Object value;
+
+        final long lastModified;
+
+        Entry(Object value, long lastModified) {
+            this.value = value;
+            this.lastModified = lastModified;
+        }
+    }
+
+    MemoryStore() {
+        this(0, TimeUnit.NANOSECONDS);
+    }
+
+    MemoryStore(long latency, TimeUnit unit) {
+        this(latency, unit, null);
+    }
+
+    MemoryStore(File directory) {
+        this(0, TimeUnit.NANOSECONDS, directory);
+    }
+
+    private MemoryStore(long latency, TimeUnit unit, File directory) {
+        latencyNanos = unit.toNanos(latency);
+        this.directory = directory;
+    }
+
+    private void simulateLatency() {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    @Override
+    public <T> void write(String key, T value) {
+        if (null == value) {
+            throw new IllegalArgumentException("Paper doesn't support writing null values");
+        }
+        simulateLatency();
+        entries.put(key, new Entry(value, System.currentTimeMillis()));
+        if (null != directory) {
+            touch(key);
+        }
+    }
+
+    private void touch(String key) {
+        try {
+            final Path written = Files.createTempFile(directory.toPath(), key, ".tmp");
+            Files.move(written, directory.toPath().resolve(key + ".pt"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't write the file of " + key, e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T read(String key) {
+        // delayed after looking up, so readers get values that may have been replaced meanwhile
+        final Entry entry = entries.get(key);
+        simulateLatency();
+        return null == entry ? null : (T)entry.value;
+    }
+
+    @Override
+    public boolean exist(String key) {
+        simulateLatency();
+        return entries.containsKey(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        simulateLatency();
+        entries.remove(key);
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        simulateLatency();
+        return new ArrayList<>(entries.keySet());
+    }
+
+    @Override
+    public void destroy() {
+        simulateLatency();
+        entries.clear();
+    }
+
+    @Override
+    public long size(String key) {
+        return entries.containsKey(key) ? ENTRY_SIZE : 0;
+    }
+
+    @Override
+    public long lastModified(String key) {
+        final Entry entry = entries.get(key);
+        return null == entry ? 0 : entry.lastModified;
+    }
+
+    @Override
+    public String getPath() {
+        return null == directory ? null : directory.getPath();
+    }
+
+    @Override
+    public List<PaperStore> shards() {
+        return Collections.<PaperStore> singletonList(this);
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import rx.Completable;
+import rx.Observable;
+import rx.Scheduler;
+import rx.Single;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import rx.subjects.SerializedSubject;
+
+/**
+ * Bytes allocated per operation on a plain JVM, compared with the operator chains the book used
+ * before, with {@link MemoryStore} standing in for Paper.
+ * <p/>
+ * Both run on {@link Schedulers#immediate()} so the whole operation is counted on the calling
+ * thread, using the JVM's allocation counters. The reference keeps the same expiry and key indexes
+ * as the book, so only the operators around the storage differ. Without
+ * {@code -XX:-DoEscapeAnalysis}, as set for the library tests, the numbers are only printed.
+ * <p/>
+ * Configured with system properties, i.e. {@code ./gradlew :library:test
+ * -Drxpaper.allocations.ops=100000}
+ * <ul>
+ * <li>rxpaper.allocations.ops: operations counted for each measure, 20000 by default</li>
+ * </ul>
+ */
+public class RxPaperBookAllocationTest {
+    private static final int OPS = Integer.getInteger("rxpaper.allocations.ops", 20000);
+
+    private static final int WARM_UP_ROUNDS = 5;
+
+    private static final String KEY = "key";
+
+    private static final String VALUE = "value";
+
+    private static com.sun.management.ThreadMXBean threads() {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocations =
+                (com.sun.management.ThreadMXBean)threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        return allocations;
+    }
+
+    private static double bytesPerOp(com.sun.management.ThreadMXBean threads,
+            Func0<Subscription> operation) {
+        final long thread = Thread.currentThread().getId();
+        // warm up class loading, caches and the JIT before counting
+        for (int i = 0; i < WARM_UP_ROUNDS * OPS; i++) {
+            operation.call();
+        }
+        final long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < OPS; i++) {
+            operation.call();
+        }
+        return (double)(threads.getThreadAllocatedBytes(thread) - start) / OPS;
+    }
+
+    /**
+     * Whether the JIT may remove short-lived allocations, which ART doesn't, hiding part of the
+     * reference chains. The library tests run with it disabled.
+     */
+    private static boolean escapeAnalysis() {
+        final com.sun.management.HotSpotDiagnosticMXBean diagnostics = ManagementFactory
+                .getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+        return null != diagnostics
+                && Boolean.parseBoolean(diagnostics.getVMOption("DoEscapeAnalysis").getValue());
+    }
+
+    private static void compare(com.sun.management.ThreadMXBean threads, boolean scalarReplaced,
+            String label, Func0<Subscription> reference, Func0<Subscription> current) {
+        final double before = bytesPerOp(threads, reference);
+        final double after = bytesPerOp(threads, current);
+        System.out.println(String.format(Locale.US, "%s: %.0f -> %.0f bytes/op", label, before,
+                after));
+        if (!scalarReplaced) {
+            Assert.assertTrue(label + " allocates more than the reference", after <= before);
+        }
+    }
+
+    @Test
+    public void testAllocations() throws Exception {
+        final com.sun.management.ThreadMXBean threads = threads();
+        final boolean scalarReplaced = escapeAnalysis();
+        if (scalarReplaced) {
+            System.out.println("Escape analysis is enabled, comparison not checked");
+        }
+        final MemoryStore store = new MemoryStore();
+        final RxPaperBook book = new RxPaperBook(store, new ExpiryIndex(new MemoryStore()),
+                new KeyIndex(store), Schedulers.immediate(), null, null, Durability.STRICT,
+                new WatchServiceWatcher());
+        final MemoryStore referenceStore = new MemoryStore();
+        final Reference reference = new Reference(referenceStore,
+                new ExpiryIndex(new MemoryStore()), new KeyIndex(referenceStore),
+                Schedulers.immediate());
+        book.write(KEY, VALUE).await();
+        reference.write(KEY, VALUE).await();
+        compare(threads, scalarReplaced, "write", new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return reference.write(KEY, VALUE).subscribe();
+            }
+        }, new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return book.write(KEY, VALUE).subscribe();
+            }
+        });
+        compare(threads, scalarReplaced, "read", new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return reference.<String> read(KEY).subscribe();
+            }
+        }, new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return book.<String> read(KEY).subscribe();
+            }
+        });
+        compare(threads, scalarReplaced, "exists", new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return reference.exists(KEY).subscribe();
+            }
+        }, new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return book.exists(KEY).subscribe();
+            }
+        });
+        compare(threads, scalarReplaced, "observe", new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                final Subscription subscription = reference.observe(KEY, String.class)
+                        .subscribe();
+                subscription.unsubscribe();
+                return subscription;
+            }
+        }, new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                final Subscription subscription = book.observe(KEY, String.class).subscribe();
+                subscription.unsubscribe();
+                return subscription;
+            }
+        });
+        final Subscription referenceObserver = reference.observe(KEY, String.class).subscribe();
+        final Subscription observer = book.observe(KEY, String.class).subscribe();
+        compare(threads, scalarReplaced, "write observed", new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return reference.write(KEY, VALUE).subscribe();
+            }
+        }, new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return book.write(KEY, VALUE).subscribe();
+            }
+        });
+        referenceObserver.unsubscribe();
+        observer.unsubscribe();
+    }
+
+    /**
+     * The write, read, exists and observe chains of the book before they were replaced by custom
+     * operators: {@code fromAction} and {@code fromCallable} on {@code subscribeOn}, reads shared
+     * through {@code replay(1).refCount()}, and updates filtered and mapped for each observer.
+     */
+    private static final class Reference {
+        private final PaperStore store;
+
+        private final ExpiryIndex expiries;
+
+        private final KeyIndex keyIndex;
+
+        private final Scheduler scheduler;
+
+        private final SerializedSubject<Map.Entry<String, ?>, Map.Entry<String, ?>> updates =
+                new SerializedSubject<>(PublishSubject.<Map.Entry<String, ?>> create());
+
+        private final ConcurrentMap<String, Observable<Object>> flights =
+                new ConcurrentHashMap<>();
+
+        Reference(PaperStore store, ExpiryIndex expiries, KeyIndex keyIndex,
+                Scheduler scheduler) {
+            this.store = store;
+            this.expiries = expiries;
+            this.keyIndex = keyIndex;
+            this.scheduler = scheduler;
+        }
+
+        private final class Flight implements Func0<Object> {
+            private final String key;
+
+            Observable<Object> shared;
+
+            Flight(String key) {
+                this.key = key;
+            }
+
+            @Override
+            public Object call() {
+                try {
+                    expiries.hasExpired(scheduler.now());
+                    return expiries.isExpired(key, scheduler.now()) ? null : store.read(key);
+                } finally {
+                    flights.remove(key, shared);
+                }
+            }
+        }
+
+        <T> Completable write(final String key, final T value) {
+            return Completable.fromAction(new Action0() {
+                @Override
+                public void call() {
+                    synchronized (this) {
+                        store.write(key, value);
+                        expiries.remove(key);
+                        keyIndex.add(key);
+                    }
+                    flights.remove(key);
+                    updates.onNext(new AbstractMap.SimpleImmutableEntry<>(key, value));
+                }
+            }).subscribeOn(scheduler);
+        }
+
+        <T> Single<T> read(final String key) {
+            return Observable.defer(new Func0<Observable<Object>>() {
+                @Override
+                public Observable<Object> call() {
+                    final Observable<Object> current = flights.get(key);
+                    if (null != current) {
+                        return current;
+                    }
+                    final Flight flight = new Flight(key);
+                    flight.shared = Observable.fromCallable(flight).subscribeOn(scheduler)
+                            .replay(1).refCount();
+                    final Observable<Object> raced = flights.putIfAbsent(key, flight.shared);
+                    return null != raced ? raced : flight.shared;
+                }
+            }).map(new Func1<Object, T>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public T call(Object read) {
+                    if (null == read) {
+                        throw new IllegalArgumentException("Key " + key + " not found");
+                    }
+                    return (T)read;
+                }
+            }).toSingle();
+        }
+
+        Single<Boolean> exists(final String key) {
+            return Single.fromCallable(new Func0<Boolean>() {
+                @Override
+                public Boolean call() {
+                    expiries.hasExpired(scheduler.now());
+                    return !expiries.isExpired(key, scheduler.now()) && store.exist(key);
+                }
+            }).subscribeOn(scheduler);
+        }
+
+        <T> Observable<T> observe(final String key, final Class<T> clazz) {
+            return updates.asObservable().filter(new Func1<Map.Entry<String, ?>, Boolean>() {
+                @Override
+                public Boolean call(Map.Entry<String, ?> update) {
+                    return update.getKey().equals(key);
+                }
+            }).map(new Func1<Map.Entry<String, ?>, Object>() {
+                @Override
+                public Object call(Map.Entry<String, ?> update) {
+                    return update.getValue();
+                }
+            }).ofType(clazz);
+        }
+    }
+}
@@ -0,0 +1,591 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Load and soak test running a mix of concurrent operations and observers on a plain JVM, with
+ * {@link MemoryStore} standing in for Paper.
+ * <p/>
+ * Each thread owns a range of keys under its own prefix and keeps a model of them, so every read,
+ * exists, keys and prefixed keys can be checked exactly while other threads load the book. All
+ * threads also write and read a few hot keys, where no read can return a write already replaced
+ * when it started, nor go back on the writes of any thread, and concurrent reads must be
+ * coalesced. Every observer must receive each write to its key once and in the order of each
+ * thread, except for writes replaced in the same group commit. Throughput, latency percentiles
+ * and heap growth are printed at the end.
+ * <p/>
+ * Configured with system properties, i.e. for a one hour soak
+ * {@code ./gradlew :library:test -Drxpaper.load.seconds=3600}
+ * <ul>
+ * <li>rxpaper.load.seconds: duration of the run, 5 by default</li>
+ * <li>rxpaper.load.threads: threads running operations, 8 by default</li>
+ * <li>rxpaper.load.keysPerThread: keys owned by each thread, 128 by default</li>
+ * <li>rxpaper.load.hotKeys: keys shared by all threads, 4 by default</li>
+ * <li>rxpaper.load.observers: observe subscriptions spread over the keys of each thread, 256 by
+ * default, besides one for each hot key</li>
+ * <li>rxpaper.load.mix: weight of each operation, write:25,read:30,exists:10,keys:5,
+ * prefix_keys:5,delete:10,hot_write:5,hot_read:10 by default</li>
+ * <li>rxpaper.load.durability: {@link Durability} of the book, STRICT by default</li>
+ * <li>rxpaper.load.storeLatencyMicros: delay added to each storage operation, 0 by default</li>
+ * <li>rxpaper.load.reportSeconds: interval between progress reports, 10 by default</li>
+ * <li>rxpaper.load.maxHeapGrowthMb: heap growth that fails the run, 64 by default</li>
+ * </ul>
+ */
+public class RxPaperBookLoadTest {
+    private static final long SECONDS = Long.getLong("rxpaper.load.seconds", 5);
+
+    private static final int THREADS = Integer.getInteger("rxpaper.load.threads", 8);
+
+    private static final int KEYS_PER_THREAD = Integer.getInteger("rxpaper.load.keysPerThread",
+            128);
+
+    private static final int HOT_KEYS = Integer.getInteger("rxpaper.load.hotKeys", 4);
+
+    private static final int OBSERVERS = Integer.getInteger("rxpaper.load.observers", 256);
+
+    private static final String MIX = System.getProperty("rxpaper.load.mix",
+            "write:25,read:30,exists:10,keys:5,prefix_keys:5,delete:10,hot_write:5,hot_read:10");
+
+    private static final Durability DURABILITY = Durability
+            .valueOf(System.getProperty("rxpaper.load.durability", Durability.STRICT.name()));
+
+    private static final long STORE_LATENCY_MICROS = Long
+            .getLong("rxpaper.load.storeLatencyMicros", 0);
+
+    private static final long REPORT_SECONDS = Long.getLong("rxpaper.load.reportSeconds", 10);
+
+    private static final long MAX_HEAP_GROWTH_MB = Long.getLong("rxpaper.load.maxHeapGrowthMb",
+            64);
+
+    private static final long QUIESCE_MILLIS = 5000;
+
+    private static final int MAX_REPORTED_VIOLATIONS = 20;
+
+    private static final Sample MISSING = new Sample(-1, -1);
+
+    private enum Op {
+        WRITE, READ, EXISTS, KEYS, PREFIX_KEYS, DELETE, HOT_WRITE, HOT_READ
+    }
+
+    private static final class Sample {
+        final int writer;
+
+        final long sequence;
+
+        Sample(int writer, long sequence) {
+            this.writer = writer;
+            this.sequence = sequence;
+        }
+    }
+
+    private final AtomicLong violations = new AtomicLong();
+
+    /** Last write of each thread completed on each hot key. */
+    private final AtomicLongArray hotCompleted = new AtomicLongArray(HOT_KEYS * THREADS);
+
+    /** Oldest write of each thread that can still be read from each hot key. */
+    private final AtomicLongArray hotFloors = new AtomicLongArray(HOT_KEYS * THREADS);
+
+    private final ConcurrentLinkedQueue<String> violationMessages = new ConcurrentLinkedQueue<>();
+
+    private void violation(String message) {
+        if (violations.incrementAndGet() <= MAX_REPORTED_VIOLATIONS) {
+            violationMessages.add(message);
+        }
+    }
+
+    private static String prefix(int thread) {
+        return "t" + thread + ":";
+    }
+
+    private static String key(int thread, int index) {
+        return prefix(thread) + "k" + index;
+    }
+
+    private static String hotKey(int index) {
+        return "hot:k" + index;
+    }
+
+    private static int hotSlot(int index, int thread) {
+        return index * THREADS + thread;
+    }
+
+    private static void raise(AtomicLongArray array, int slot, long value) {
+        for (long current = array.get(slot); current < value; current = array.get(slot)) {
+            if (array.compareAndSet(slot, current, value)) {
+                return;
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void log(String format, Object... args) {
+        System.out.println(String.format(Locale.US, format, args));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static Op[] parseMix(String mix) {
+        final List<Op> weighted = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            final String[] parts = entry.trim().split(":");
+            final Op op = Op.valueOf(parts[0].trim().toUpperCase(Locale.US));
+            for (int i = Integer.parseInt(parts[1].trim()); i > 0; i--) {
+                weighted.add(op);
+            }
+        }
+        if (weighted.isEmpty()) {
+            throw new IllegalArgumentException("Empty operation mix " + mix);
+        }
+        return weighted.toArray(new Op[weighted.size()]);
+    }
+
+    /**
+     * Subscription to a key checking it receives the writes of every thread in order.
+     */
+    private final class Observer implements Action1<Sample> {
+        final String key;
+
+        /** Thread owning the key, or -1 for a hot key. */
+        final int owner;
+
+        final int index;
+
+        final AtomicLong received = new AtomicLong();
+
+        private final long[] lastSequences = new long[THREADS];
+
+        Observer(int owner, int index) {
+            this.owner = owner;
+            this.index = index;
+            key = owner < 0 ? hotKey(index) : key(owner, index);
+        }
+
+        @Override
+        public synchronized void call(Sample sample) {
+            if (sample.sequence <= lastSequences[sample.writer]) {
+                violation("Observer of " + key + " received " + sample.sequence + " from load-"
+                        + sample.writer + " after " + lastSequences[sample.writer]);
+            }
+            lastSequences[sample.writer] = sample.sequence;
+            received.incrementAndGet();
+        }
+
+        synchronized long lastSequence(int writer) {
+            return lastSequences[writer];
+        }
+    }
+
+    /**
+     * Thread running random operations over its own keys and checking them against its model.
+     */
+    private final class Driver extends Thread {
+        private final RxPaperBook book;
+
+        private final int thread;
+
+        private final Op[] mix;
+
+        private final long deadline;
+
+        private final Random random;
+
+        private final Set<String> ownKeys = new HashSet<>();
+
+        final long[] written = new long[KEYS_PER_THREAD];
+
+        final boolean[] present = new boolean[KEYS_PER_THREAD];
+
+        final long[] hotWritten = new long[HOT_KEYS];
+
+        /** Last sequence read from each thread on each hot key. */
+        private final long[][] hotRead = new long[HOT_KEYS][THREADS];
+
+        private final long[] hotSnapshot = new long[THREADS];
+
+        final LatencyHistogram[] latencies = new LatencyHistogram[Op.values().length];
+
+        final AtomicLong completed = new AtomicLong();
+
+        Driver(RxPaperBook book, int thread, Op[] mix, long deadline) {
+            super("load-" + thread);
+            this.book = book;
+            this.thread = thread;
+            this.mix = mix;
+            this.deadline = deadline;
+            random = new Random(thread);
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                ownKeys.add(key(thread, i));
+            }
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (System.nanoTime() < deadline
+                        && violations.get() < MAX_REPORTED_VIOLATIONS) {
+                    runOnce(mix[random.nextInt(mix.length)], random.nextInt(KEYS_PER_THREAD));
+                    completed.incrementAndGet();
+                }
+            } catch (Throwable e) {
+                violation(getName() + " failed with " + e);
+            }
+        }
+
+        private void runOnce(Op op, int index) {
+            final String key = key(thread, index);
+            final long start = System.nanoTime();
+            switch (op) {
+                case WRITE:
+                    book.write(key, new Sample(thread, ++written[index])).await();
+                    latencies[op.ordinal()].record(System.nanoTime() - start);
+                    present[index] = true;
+                    break;
+                case READ:
+                    final Sample read = book.read(key, MISSING).toBlocking().value();
+                    latencies[op.ordinal()].record(System.nanoTime() - start);
+                    final long expected = present[index] ? written[index] : MISSING.sequence;
+                    if (read.sequence != expected) {
+                        violation("Read " + read.sequence + " from " + key + ", expected "
+                                + expected);
+                    }
+                    break;
+                case EXISTS:
+                    final boolean exists = book.exists(key).toBlocking().value();
+                    latencies[op.ordinal()].record(System.nanoTime() - start);
+                    if (exists != present[index]) {
+                        violation("Exists " + exists + " for " + key);
+                    }
+                    break;
+                case KEYS:
+                    final List<String> keys = book.keys().toBlocking().value();
+                    latencies[op.ordinal()].record(System.nanoTime() - start);
+                    checkKeys(keys);
+                    break;
+                case PREFIX_KEYS:
+                    final List<String> prefixed = book.keys(prefix(thread)).toBlocking().value();
+                    latencies[op.ordinal()].record(System.nanoTime() - start);
+                    checkPrefixKeys(prefixed);
+                    break;
+                case DELETE:
+                    book.delete(key).await();
+                    latencies[op.ordinal()].record(System.nanoTime() - start);
+                    present[index] = false;
+                    break;
+                case HOT_WRITE:
+                    final int hotWrite = index % HOT_KEYS;
+                    snapshot(hotCompleted, hotWrite);
+                    book.write(hotKey(hotWrite), new Sample(thread, ++hotWritten[hotWrite]))
+                            .await();
+                    latencies[op.ordinal()].record(System.nanoTime() - start);
+                    onHotWritten(hotWrite);
+                    break;
+                case HOT_READ:
+                    final int hotIndex = index % HOT_KEYS;
+                    snapshot(hotFloors, hotIndex);
+                    final Sample hot = book.read(hotKey(hotIndex), MISSING).toBlocking().value();
+                    latencies[op.ordinal()].record(System.nanoTime() - start);
+                    checkHotRead(hotIndex, hot);
+                    break;
+            }
+        }
+
+        private void snapshot(AtomicLongArray array, int index) {
+            for (int i = 0; i < THREADS; i++) {
+                hotSnapshot[i] = array.get(hotSlot(index, i));
+            }
+        }
+
+        /**
+         * The write replaced the writes other threads completed before it started, and all the
+         * previous writes of this thread, so none of them can be read anymore.
+         */
+        private void onHotWritten(int index) {
+            for (int i = 0; i < THREADS; i++) {
+                raise(hotFloors, hotSlot(index, i), hotSnapshot[i] + 1);
+            }
+            raise(hotFloors, hotSlot(index, thread), hotWritten[index]);
+            hotCompleted.set(hotSlot(index, thread), hotWritten[index]);
+        }
+
+        /**
+         * Other threads may overwrite a hot key at any time, but a read must return a write that
+         * wasn't replaced when it started, and no thread's writes can go back.
+         */
+        private void checkHotRead(int index, Sample read) {
+            if (read == MISSING) {
+                // any completed write raises the floors of all threads
+                if (hotSnapshot[thread] > 0) {
+                    violation("Read nothing from " + hotKey(index) + " after it was written");
+                }
+                return;
+            }
+            if (read.sequence < hotSnapshot[read.writer]) {
+                violation(getName() + " read " + read.sequence + " of load-" + read.writer
+                        + " from " + hotKey(index) + " after " + hotSnapshot[read.writer]
+                        + " replaced it");
+            }
+            if (read.sequence < hotRead[index][read.writer]) {
+                violation(getName() + " read " + read.sequence + " of load-" + read.writer
+                        + " from " + hotKey(index) + " after " + hotRead[index][read.writer]);
+            }
+            hotRead[index][read.writer] = read.sequence;
+        }
+
+        /**
+         * @return writes done by this thread to the key of the observer
+         */
+        long writes(Observer observer) {
+            if (observer.owner < 0) {
+                return hotWritten[observer.index];
+            }
+            return observer.owner == thread ? written[observer.index] : 0;
+        }
+
+        private void checkKeys(List<String> keys) {
+            final Set<String> found = new HashSet<>(keys);
+            if (found.size() != keys.size()) {
+                violation("Keys returned duplicates");
+            }
+            int own = 0;
+            for (String key : keys) {
+                if (ownKeys.contains(key)) {
+                    own++;
+                }
+            }
+            int expected = 0;
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                if (present[i]) {
+                    expected++;
+                    if (!found.contains(key(thread, i))) {
+                        violation("Keys is missing " + key(thread, i));
+                    }
+                }
+            }
+            if (own != expected) {
+                violation("Keys returned " + own + " keys of " + getName() + ", expected "
+                        + expected);
+            }
+        }
+
+        private void checkPrefixKeys(List<String> keys) {
+            final List<String> expected = new ArrayList<>();
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                if (present[i]) {
+                    expected.add(key(thread, i));
+                }
+            }
+            Collections.sort(expected);
+            if (!expected.equals(keys)) {
+                violation("Prefixed keys of " + getName() + " were " + keys + ", expected "
+                        + expected);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        final Op[] mix = parseMix(MIX);
+        final long heapBefore = usedHeap();
+        final PaperStore store = new MemoryStore(STORE_LATENCY_MICROS, TimeUnit.MICROSECONDS);
+        final RxPaperBook book = new RxPaperBook(store, new ExpiryIndex(new MemoryStore()),
+                new KeyIndex(store), Schedulers.io(), null, null, DURABILITY,
+                new WatchServiceWatcher());
+        final List<Observer> observers = new ArrayList<>();
+        final List<Subscription> subscriptions = new ArrayList<>();
+        for (int i = 0; i < OBSERVERS; i++) {
+            observers.add(new Observer(i % THREADS, (i / THREADS) % KEYS_PER_THREAD));
+        }
+        for (int i = 0; i < HOT_KEYS; i++) {
+            observers.add(new Observer(-1, i));
+        }
+        for (Observer observer : observers) {
+            subscriptions.add(book.observe(observer.key, Sample.class).subscribe(observer,
+                    new Action1<Throwable>() {
+                        @Override
+                        public void call(Throwable throwable) {
+                            violation("Observer failed with " + throwable);
+                        }
+                    }));
+        }
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.SECONDS.toNanos(SECONDS);
+        final List<Driver> drivers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            drivers.add(new Driver(book, i, mix, deadline));
+        }
+        for (Driver driver : drivers) {
+            driver.start();
+        }
+        report(drivers, start);
+        for (Driver driver : drivers) {
+            driver.join();
+        }
+        final long elapsed = System.nanoTime() - start;
+        checkObservers(observers, drivers);
+        for (Subscription subscription : subscriptions) {
+            subscription.unsubscribe();
+        }
+        final long heapAfter = usedHeap();
+        printSummary(drivers, elapsed, book, heapBefore, heapAfter);
+        Assert.assertTrue(violations.get() + " violations, first ones: " + violationMessages,
+                violations.get() == 0);
+        Assert.assertTrue("Heap grew more than " + MAX_HEAP_GROWTH_MB + "MB",
+                heapAfter - heapBefore < MAX_HEAP_GROWTH_MB * 1024 * 1024);
+        if (THREADS > 1 && HOT_KEYS > 0 && Arrays.asList(mix).contains(Op.HOT_READ)) {
+            Assert.assertTrue("No concurrent reads were coalesced",
+                    book.readStats().getCoalesced() > 0);
+        }
+    }
+
+    /**
+     * Prints progress every {@link #REPORT_SECONDS} until the drivers finish.
+     */
+    private void report(List<Driver> drivers, long start) throws InterruptedException {
+        long lastCompleted = 0;
+        long lastReport = start;
+        while (true) {
+            boolean alive = false;
+            for (Driver driver : drivers) {
+                driver.join(TimeUnit.SECONDS.toMillis(REPORT_SECONDS));
+                alive |= driver.isAlive();
+                if (alive) {
+                    break;
+                }
+            }
+            if (!alive) {
+                return;
+            }
+            final long now = System.nanoTime();
+            long completed = 0;
+            for (Driver driver : drivers) {
+                completed += driver.completed.get();
+            }
+            final Runtime runtime = Runtime.getRuntime();
+            log("%4ds: %.0f ops/s, heap %.1fMB", TimeUnit.NANOSECONDS.toSeconds(now - start),
+                    (completed - lastCompleted) / ((now - lastReport) / 1e9),
+                    (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0);
+            lastCompleted = completed;
+            lastReport = now;
+        }
+    }
+
+    /**
+     * Waits for notifications still being delivered, then checks no observer missed any.
+     * <p/>
+     * With {@link Durability#GROUP_COMMIT} a hot key written by several threads in the same window
+     * is saved and notified once, so its observers may receive fewer notifications than writes.
+     */
+    private void checkObservers(List<Observer> observers, List<Driver> drivers)
+            throws InterruptedException {
+        final long quiesceDeadline = System.currentTimeMillis() + QUIESCE_MILLIS;
+        for (Observer observer : observers) {
+            long expected = 0;
+            for (Driver driver : drivers) {
+                expected += driver.writes(observer);
+            }
+            while (observer.received.get() < expected
+                    && System.currentTimeMillis() < quiesceDeadline) {
+                Thread.sleep(1);
+            }
+            if (observer.owner < 0 && DURABILITY == Durability.GROUP_COMMIT) {
+                if (observer.received.get() > expected
+                        || (expected > 0 && observer.received.get() == 0)) {
+                    violation("Observer of " + observer.key + " received "
+                            + observer.received.get() + " notifications for " + expected
+                            + " writes");
+                }
+                continue;
+            }
+            if (observer.received.get() != expected) {
+                violation("Observer of " + observer.key + " received "
+                        + observer.received.get() + " notifications for " + expected + " writes");
+                continue;
+            }
+            for (Driver driver : drivers) {
+                final long last = observer.lastSequence(driver.thread);
+                if (last != driver.writes(observer)) {
+                    violation("Observer of " + observer.key + " last received " + last + " from "
+                            + driver.getName() + ", expected " + driver.writes(observer));
+                }
+            }
+        }
+    }
+
+    private void printSummary(List<Driver> drivers, long elapsed, RxPaperBook book,
+            long heapBefore, long heapAfter) {
+        final LatencyHistogram total = new LatencyHistogram();
+        log("%d threads, %d keys, %d hot keys, %d observers, %s, %s for %.1fs", THREADS,
+                THREADS * KEYS_PER_THREAD, HOT_KEYS, OBSERVERS, DURABILITY, MIX, elapsed / 1e9);
+        for (Op op : Op.values()) {
+            final LatencyHistogram merged = new LatencyHistogram();
+            for (Driver driver : drivers) {
+                merged.merge(driver.latencies[op.ordinal()]);
+            }
+            total.merge(merged);
+            if (merged.count() == 0) {
+                continue;
+            }
+            log("%-11s %9d ops %9.0f ops/s  p50 %7.3fms  p99 %7.3fms  p999 %7.3fms  max %7.3fms",
+                    op, merged.count(), merged.count() / (elapsed / 1e9),
+                    millis(merged.percentile(50)), millis(merged.percentile(99)),
+                    millis(merged.percentile(99.9)), millis(merged.max()));
+        }
+        log("total       %9d ops %9.0f ops/s, %s", total.count(), total.count() / (elapsed / 1e9),
+                book.readStats());
+        log("heap %.1fMB before, %.1fMB after, %+.1fMB growth", heapBefore / 1048576.0,
+                heapAfter / 1048576.0, (heapAfter - heapBefore) / 1048576.0);
+    }
+}
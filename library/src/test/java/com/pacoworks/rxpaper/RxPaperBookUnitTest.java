@@ -0,0 +1,400 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import rx.Completable;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+/**
+ * Tests running on a plain JVM, with {@link MemoryStore} standing in for Paper and a
+ * {@link TestScheduler} controlling time.
+ */
+public class RxPaperBookUnitTest {
+    private static final long EVENT_TIMEOUT_SECONDS = 5;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestScheduler scheduler = new TestScheduler();
+
+    private RxPaperBook book(PaperStore store, ExpiryIndex expiries) {
+        return book(store, expiries, new KeyIndex(store));
+    }
+
+    private RxPaperBook book(PaperStore store, ExpiryIndex expiries, KeyIndex keys) {
+        return new RxPaperBook(store, expiries, keys, scheduler, null, null, Durability.STRICT,
+                new WatchServiceWatcher());
+    }
+
+    private List<String> keys(RxPaperBook book, String prefix) {
+        final TestSubscriber<List<String>> keys = TestSubscriber.create();
+        book.keys(prefix).subscribe(keys);
+        scheduler.triggerActions();
+        keys.assertNoErrors();
+        return keys.getOnNextEvents().get(0);
+    }
+
+    @Test
+    public void testExpirySharedByInstances() throws Exception {
+        final PaperStore store = new MemoryStore();
+        final ExpiryIndex expiries = new ExpiryIndex(new MemoryStore());
+        final RxPaperBook first = book(store, expiries);
+        final RxPaperBook second = book(store, expiries);
+        first.write("key", "expiring", 100, TimeUnit.MILLISECONDS).subscribe();
+        scheduler.triggerActions();
+        second.write("key", "permanent").subscribe();
+        scheduler.triggerActions();
+        scheduler.advanceTimeBy(200, TimeUnit.MILLISECONDS);
+        first.exists("key").subscribe();
+        scheduler.triggerActions();
+        Assert.assertEquals("permanent", store.read("key"));
+        final TestSubscriber<String> read = TestSubscriber.create();
+        first.<String> read("key").subscribe(read);
+        scheduler.triggerActions();
+        read.assertValue("permanent");
+    }
+
+    @Test
+    public void testExpiryReplacedElsewhere() throws Exception {
+        final PaperStore store = new MemoryStore();
+        final PaperStore expiryStore = new MemoryStore();
+        // separate indexes on the same stores, like another process
+        final RxPaperBook first = book(store, new ExpiryIndex(expiryStore));
+        final RxPaperBook second = book(store, new ExpiryIndex(expiryStore));
+        second.exists("key").subscribe();
+        first.write("key", "expiring", 100, TimeUnit.MILLISECONDS).subscribe();
+        scheduler.triggerActions();
+        second.write("key", "permanent").subscribe();
+        scheduler.triggerActions();
+        scheduler.advanceTimeBy(200, TimeUnit.MILLISECONDS);
+        first.exists("key").subscribe();
+        scheduler.triggerActions();
+        Assert.assertEquals("permanent", store.read("key"));
+        Assert.assertNull(expiryStore.read("key"));
+    }
+
+    @Test
+    public void testPrefixSharedByInstances() throws Exception {
+        final PaperStore store = new MemoryStore();
+        final ExpiryIndex expiries = new ExpiryIndex(new MemoryStore());
+        final KeyIndex keys = new KeyIndex(store);
+        final RxPaperBook first = book(store, expiries, keys);
+        final RxPaperBook second = book(store, expiries, keys);
+        first.write("user:1:a", "a").subscribe();
+        scheduler.triggerActions();
+        Assert.assertEquals(Arrays.asList("user:1:a"), keys(first, "user:"));
+        second.write("user:1:b", "b").subscribe();
+        second.delete("user:1:a").subscribe();
+        scheduler.triggerActions();
+        Assert.assertEquals(Arrays.asList("user:1:b"), keys(first, "user:"));
+        first.deletePrefix("user:").subscribe();
+        scheduler.triggerActions();
+        Assert.assertTrue(store.getAllKeys().isEmpty());
+    }
+
+    @Test
+    public void testPrefixChangedElsewhere() throws Exception {
+        final PaperStore store = new MemoryStore();
+        final PaperStore expiryStore = new MemoryStore();
+        // separate indexes on the same stores, like another process
+        final RxPaperBook first = book(store, new ExpiryIndex(expiryStore));
+        final RxPaperBook second = book(store, new ExpiryIndex(expiryStore));
+        first.write("user:1:a", "a").subscribe();
+        scheduler.triggerActions();
+        Assert.assertEquals(Arrays.asList("user:1:a"), keys(first, "user:"));
+        second.write("user:1:b", "b").subscribe();
+        second.delete("user:1:a").subscribe();
+        scheduler.triggerActions();
+        Assert.assertTrue(keys(first, "user:").isEmpty());
+        first.write("user:2:a", "a").subscribe();
+        first.deletePrefix("user:").subscribe();
+        scheduler.triggerActions();
+        // only listing the storage finds the keys written elsewhere while not watching
+        Assert.assertEquals(Arrays.asList("user:1:b"), store.getAllKeys());
+        first.deletePrefix("user:", true).subscribe();
+        scheduler.triggerActions();
+        Assert.assertTrue(store.getAllKeys().isEmpty());
+    }
+
+    @Test
+    public void testDestroyClearsWritesBeforeSubscribing() throws Exception {
+        final PaperStore store = new MemoryStore();
+        final RxPaperBook book = new RxPaperBook(store, new ExpiryIndex(new MemoryStore()),
+                new KeyIndex(store), scheduler, null, null, Durability.RELAXED,
+                new WatchServiceWatcher());
+        final Completable destroy = book.destroy();
+        book.write("key", "value").subscribe();
+        destroy.subscribe();
+        scheduler.triggerActions();
+        final TestSubscriber<Boolean> exists = TestSubscriber.create();
+        book.exists("key").subscribe(exists);
+        book.flush().subscribe();
+        scheduler.triggerActions();
+        exists.assertValue(false);
+        Assert.assertTrue(store.getAllKeys().isEmpty());
+    }
+
+    @Test
+    public void testExternalChanges() throws Exception {
+        final FailingStore store = new FailingStore(new MemoryStore(folder.getRoot()));
+        final ExpiryIndex expiries = new ExpiryIndex(new MemoryStore());
+        final Semaphore events = new Semaphore(0);
+        final DirectoryWatcher watcher = new DirectoryWatcher() {
+            private final DirectoryWatcher watcher = new WatchServiceWatcher();
+
+            @Override
+            public Subscription watch(String directory, final Action1<String> onWritten) {
+                return watcher.watch(directory, new Action1<String>() {
+                    @Override
+                    public void call(String fileName) {
+                        onWritten.call(fileName);
+                        if (fileName.endsWith(".pt")) {
+                            events.release();
+                        }
+                    }
+                });
+            }
+        };
+        final RxPaperBook book = new RxPaperBook(store, expiries, new KeyIndex(store), scheduler,
+                null, null, Durability.STRICT, watcher);
+        final RxPaperBook other = book(store, expiries);
+        final TestSubscriber<Map.Entry<String, Object>> observer = TestSubscriber.create();
+        book.observePrefix("").subscribe(observer);
+        final Subscription watch = book.watchExternalChanges();
+        // writes done elsewhere in the same window are sent together, once per key
+        other.write("a", "first").subscribe();
+        other.write("b", "second").subscribe();
+        other.write("a", "third").subscribe();
+        scheduler.triggerActions();
+        Assert.assertTrue(events.tryAcquire(3, EVENT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        observer.assertNoValues();
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(2, observer.getOnNextEvents().size());
+        Assert.assertEquals("a", observer.getOnNextEvents().get(0).getKey());
+        Assert.assertEquals("third", observer.getOnNextEvents().get(0).getValue());
+        Assert.assertEquals("b", observer.getOnNextEvents().get(1).getKey());
+        // own writes are only sent when done
+        book.write("c", "own").subscribe();
+        scheduler.triggerActions();
+        Assert.assertTrue(events.tryAcquire(1, EVENT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(3, observer.getOnNextEvents().size());
+        Assert.assertEquals("c", observer.getOnNextEvents().get(2).getKey());
+        // objects that can't be read are skipped without stopping the others
+        store.failReads.add("bad");
+        other.write("bad", "unreadable").subscribe();
+        other.write("e", "readable").subscribe();
+        scheduler.triggerActions();
+        Assert.assertTrue(events.tryAcquire(2, EVENT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        observer.assertNoErrors();
+        Assert.assertEquals(4, observer.getOnNextEvents().size());
+        Assert.assertEquals("e", observer.getOnNextEvents().get(3).getKey());
+        // nothing is sent after unsubscribing
+        watch.unsubscribe();
+        other.write("d", "late").subscribe();
+        scheduler.triggerActions();
+        Assert.assertFalse(events.tryAcquire(1, 200, TimeUnit.MILLISECONDS));
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(4, observer.getOnNextEvents().size());
+    }
+
+    @Test
+    public void testObserveBackpressure() throws Exception {
+        final RxPaperBook book = book(new MemoryStore(), new ExpiryIndex(new MemoryStore()));
+        final TestSubscriber<String> unrequested = TestSubscriber.create(0);
+        book.observe("key", String.class).subscribe(unrequested);
+        final TestSubscriber<String> requested = TestSubscriber.create(1);
+        book.observe("key", String.class).subscribe(requested);
+        book.write("other", "skipped").subscribe();
+        book.write("key", "value").subscribe();
+        scheduler.triggerActions();
+        unrequested.assertNoValues();
+        requested.assertValue("value");
+        requested.assertNoErrors();
+    }
+
+    @Test
+    public void testPriorityLanes() throws Exception {
+        final PaperStore store = new MemoryStore();
+        final RxPaperBook book = new RxPaperBook(store, new ExpiryIndex(new MemoryStore()),
+                new KeyIndex(store), scheduler, null, new PriorityLanes(scheduler, 1),
+                Durability.STRICT, new WatchServiceWatcher());
+        // the first write takes the only slot until the scheduler runs, the others are queued
+        for (int i = 1; i <= 3; i++) {
+            book.background().write("key", i).subscribe();
+        }
+        final TestSubscriber<Integer> read = TestSubscriber.create();
+        book.foreground().<Integer> read("key").subscribe(read);
+        scheduler.triggerActions();
+        read.assertValue(1);
+        Assert.assertEquals(Integer.valueOf(3), store.<Integer> read("key"));
+    }
+
+    @Test
+    public void testPriorityLanesWithQueuedRead() throws Exception {
+        final PaperStore store = new MemoryStore();
+        final RxPaperBook book = new RxPaperBook(store, new ExpiryIndex(new MemoryStore()),
+                new KeyIndex(store), scheduler, null, new PriorityLanes(scheduler, 1),
+                Durability.STRICT, new WatchServiceWatcher());
+        for (int i = 1; i <= 3; i++) {
+            book.background().write("key", i).subscribe();
+        }
+        final TestSubscriber<Integer> background = TestSubscriber.create();
+        book.background().<Integer> read("key").subscribe(background);
+        // doesn't wait for the queued background read of the same key
+        final TestSubscriber<Integer> foreground = TestSubscriber.create();
+        book.foreground().<Integer> read("key").subscribe(foreground);
+        scheduler.triggerActions();
+        foreground.assertValue(1);
+        background.assertValue(3);
+    }
+
+    @Test
+    public void testSweepWithFailingStore() throws Exception {
+        final FailingStore store = new FailingStore(new MemoryStore());
+        final RxPaperBook book = book(store, new ExpiryIndex(new MemoryStore()));
+        book.write("a", "a", 100, TimeUnit.MILLISECONDS).subscribe();
+        book.write("b", "b", 100, TimeUnit.MILLISECONDS).subscribe();
+        scheduler.triggerActions();
+        scheduler.advanceTimeBy(200, TimeUnit.MILLISECONDS);
+        store.failDeletes = true;
+        final TestSubscriber<Boolean> exists = TestSubscriber.create();
+        book.exists("a").subscribe(exists);
+        scheduler.triggerActions();
+        exists.assertValue(false);
+        Assert.assertEquals(2, store.getAllKeys().size());
+        // the failed keys are swept again by the next operation
+        store.failDeletes = false;
+        book.exists("a").subscribe();
+        scheduler.triggerActions();
+        Assert.assertTrue(store.getAllKeys().isEmpty());
+    }
+
+    @Test
+    public void testEvictWithFailingStore() throws Exception {
+        final FailingStore store = new FailingStore(new MemoryStore());
+        final RxPaperBook book = new RxPaperBook(store, new ExpiryIndex(new MemoryStore()),
+                new KeyIndex(store), scheduler,
+                new EvictionTracker(store, Long.MAX_VALUE, 2, EvictionPolicy.LRU), null,
+                Durability.STRICT, new WatchServiceWatcher());
+        book.write("a", "a").subscribe();
+        book.write("b", "b").subscribe();
+        scheduler.triggerActions();
+        store.failDeletes = true;
+        book.write("c", "c").subscribe();
+        scheduler.triggerActions();
+        Assert.assertEquals(3, store.getAllKeys().size());
+        Assert.assertEquals(3, book.evictionStats().getEntries());
+        store.failDeletes = false;
+        book.write("d", "d").subscribe();
+        scheduler.triggerActions();
+        Assert.assertEquals(2, store.getAllKeys().size());
+        Assert.assertEquals(2, book.evictionStats().getEntries());
+    }
+
+    @Test
+    public void testFlushWithFailingStore() throws Exception {
+        final FailingStore store = new FailingStore(new MemoryStore());
+        final RxPaperBook book = new RxPaperBook(store, new ExpiryIndex(new MemoryStore()),
+                new KeyIndex(store), scheduler, null, null, Durability.RELAXED,
+                new WatchServiceWatcher());
+        store.failWrites = true;
+        // enough to start flushing in the background, which fails too
+        for (int i = 0; i < 256; i++) {
+            book.write("key" + i, i).subscribe();
+        }
+        scheduler.triggerActions();
+        final TestSubscriber<Void> failed = TestSubscriber.create();
+        book.flush().subscribe(failed);
+        scheduler.triggerActions();
+        failed.assertError(IllegalStateException.class);
+        store.failWrites = false;
+        final TestSubscriber<Void> flushed = TestSubscriber.create();
+        book.flush().subscribe(flushed);
+        scheduler.triggerActions();
+        flushed.assertCompleted();
+        Assert.assertEquals(256, store.getAllKeys().size());
+    }
+
+    @Test
+    public void testGroupCommitWithFailingStore() throws Exception {
+        final FailingStore store = new FailingStore(new MemoryStore());
+        final RxPaperBook book = new RxPaperBook(store, new ExpiryIndex(new MemoryStore()),
+                new KeyIndex(store), scheduler, null, null, Durability.GROUP_COMMIT,
+                new WatchServiceWatcher());
+        store.failWrites = true;
+        final TestSubscriber<Void> failed = TestSubscriber.create();
+        book.write("key", "value").subscribe(failed);
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        failed.assertError(IllegalStateException.class);
+        store.failWrites = false;
+        final TestSubscriber<Void> written = TestSubscriber.create();
+        book.write("other", "other").subscribe(written);
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        written.assertCompleted();
+        Assert.assertEquals("value", store.read("key"));
+        Assert.assertEquals("other", store.read("other"));
+    }
+
+    @Test
+    public void testWriteWithInvalidTtl() throws Exception {
+        final RxPaperBook book = book(new MemoryStore(), new ExpiryIndex(new MemoryStore()));
+        try {
+            book.write("key", "value", -1, TimeUnit.SECONDS);
+            Assert.fail("Negative time to live accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            book.write("key", "value", 0, TimeUnit.SECONDS);
+            Assert.fail("Zero time to live accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testWriteWithLongestTtl() throws Exception {
+        scheduler.advanceTimeBy(1, TimeUnit.DAYS);
+        final RxPaperBook book = book(new MemoryStore(), new ExpiryIndex(new MemoryStore()));
+        book.write("key", "value", Long.MAX_VALUE, TimeUnit.MILLISECONDS).subscribe();
+        scheduler.triggerActions();
+        final TestSubscriber<Boolean> exists = TestSubscriber.create();
+        book.exists("key").subscribe(exists);
+        scheduler.triggerActions();
+        exists.assertValue(true);
+    }
+}
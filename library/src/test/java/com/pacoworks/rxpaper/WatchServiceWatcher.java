@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.pacoworks.rxpaper;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * {@link DirectoryWatcher} using a {@link WatchService}, standing in for
+ * {@link FileObserverWatcher} on a plain JVM.
+ * <p/>
+ * Files are reported when created or moved into the folder, so stores should write them by moving
+ * a finished file in place, as {@link MemoryStore} does.
+ *
+ * @author pakoito
+ */
+final class WatchServiceWatcher implements DirectoryWatcher {
+    @Override
+    public Subscription watch(String directory, final Action1<String> onWritten) {
+        final WatchService service;
+        try {
+            final Path path = Paths.get(directory);
+            Files.createDirectories(path);
+            service = FileSystems.getDefault().newWatchService();
+            path.register(service, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't watch " + directory, e);
+        }
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final WatchKey key = service.take();
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.context() instanceof Path) {
+                                onWritten.call(event.context().toString());
+                            }
+                        }
+                        key.reset();
+                    }
+                } catch (ClosedWatchServiceException | InterruptedException e) {
+                    // stopped watching
+                }
+            }
+        }, "WatchServiceWatcher " + directory);
+        thread.setDaemon(true);
+        thread.start();
+        return Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    service.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Can't stop watching", e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import rx.Completable;
+import rx.Subscription;
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.pacoworks.rxpaper.sample.model.ImmutableObject;
+
+/**
+ * Latency benchmarks, results are printed to logcat under the tag {@link #TAG}.
+ * <p/>
+ * Skipped unless run with the instrumentation argument benchmark=true, i.e.
+ * {@code ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.benchmark=true}
+ */
+@RunWith(AndroidJUnit4.class)
+public class RxPaperBookBenchmark {
+    private static final String TAG = "RxPaperBenchmark";
+
+    private static final int[] KEY_COUNTS = {
+            1000, 5000, 20000
+    };
+
+    private static final int SHARDS = 16;
+
+    private static final int SAMPLES = 200;
+
+    private static final int BACKGROUND_WRITES = 2000;
+
+    private static final int MAX_CONCURRENT = 4;
+
+    private static final int BURST_WRITES = 1000;
+
+    private static final int BURST_KEYS = 250;
+
+    private static final int ALLOCATION_OPS = 10000;
+
+    private final Random random = new Random(42);
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Boolean
+                .parseBoolean(InstrumentationRegistry.getArguments().getString("benchmark")));
+        RxPaperBook.init(InstrumentationRegistry.getTargetContext());
+    }
+
+    private static double millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    private static void log(String format, Object... args) {
+        Log.i(TAG, String.format(Locale.US, format, args));
+    }
+
+    private static double percentile(double[] sortedMillis, double percentile) {
+        final int index = (int)Math.ceil(percentile / 100 * sortedMillis.length) - 1;
+        return sortedMillis[Math.max(0, Math.min(index, sortedMillis.length - 1))];
+    }
+
+    @Test
+    public void benchmarkSharding() throws Exception {
+        for (int count : KEY_COUNTS) {
+            measureKeyScaling("single", RxPaperBook.with("BENCH_SINGLE", Schedulers.io()), count);
+            measureKeyScaling("sharded x" + SHARDS,
+                    RxPaperBook.withShards("BENCH_SHARDED", SHARDS, Schedulers.io()), count);
+        }
+    }
+
+    private void measureKeyScaling(String label, RxPaperBook book, int count) {
+        book.destroy().await();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            book.write("key" + i, new ImmutableObject("value" + i)).await();
+        }
+        final double write = millisSince(start) / count;
+        start = System.nanoTime();
+        for (int i = 0; i < SAMPLES; i++) {
+            book.read("key" + random.nextInt(count)).toBlocking().value();
+        }
+        final double read = millisSince(start) / SAMPLES;
+        start = System.nanoTime();
+        for (int i = 0; i < SAMPLES; i++) {
+            book.exists("key" + random.nextInt(count)).toBlocking().value();
+        }
+        final double exists = millisSince(start) / SAMPLES;
+        start = System.nanoTime();
+        book.keys().toBlocking().value();
+        final double keys = millisSince(start);
+        start = System.nanoTime();
+        book.destroy().await();
+        final double destroy = millisSince(start);
+        log("%s, %d keys: write %.3fms, read %.3fms, exists %.3fms, keys %.1fms, destroy %.1fms",
+                label, count, write, read, exists, keys, destroy);
+    }
+
+    @Test
+    public void benchmarkPriorityLanes() throws Exception {
+        measureReadsUnderWriteLoad("io", RxPaperBook.with("BENCH_LOAD", Schedulers.io()));
+        measureReadsUnderWriteLoad("priority lanes x" + MAX_CONCURRENT,
+                RxPaperBook.withPriorityLanes("BENCH_LANES", MAX_CONCURRENT, Schedulers.io()));
+    }
+
+    private void measureReadsUnderWriteLoad(String label, RxPaperBook book) {
+        book.destroy().await();
+        for (int i = 0; i < SAMPLES; i++) {
+            book.write("read" + i, new ImmutableObject("value" + i)).await();
+        }
+        for (int i = 0; i < BACKGROUND_WRITES; i++) {
+            book.write("write" + i, new ImmutableObject("value" + i)).subscribe();
+        }
+        final double[] latencies = new double[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            final long start = System.nanoTime();
+            book.read("read" + i).toBlocking().value();
+            latencies[i] = millisSince(start);
+        }
+        Arrays.sort(latencies);
+        log("%s, reads under %d writes: p50 %.3fms, p99 %.3fms, max %.3fms", label,
+                BACKGROUND_WRITES, percentile(latencies, 50), percentile(latencies, 99),
+                latencies[SAMPLES - 1]);
+        book.destroy().await();
+    }
+
+    @Test
+    public void benchmarkDurability() throws Exception {
+        for (Durability durability : Durability.values()) {
+            measureWriteBurst(durability,
+                    RxPaperBook.withDurability("BENCH_" + durability, durability));
+        }
+    }
+
+    private void measureWriteBurst(Durability durability, RxPaperBook book) {
+        book.destroy().await();
+        final List<Completable> writes = new ArrayList<>(BURST_WRITES);
+        for (int i = 0; i < BURST_WRITES; i++) {
+            writes.add(book.write("key" + (i % BURST_KEYS), new ImmutableObject("value" + i)));
+        }
+        final long start = System.nanoTime();
+        Completable.merge(writes).await();
+        final double completed = millisSince(start);
+        book.flush().await();
+        final double flushed = millisSince(start);
+        log("%s, %d writes over %d keys: %.0f writes/s completed, %.0f writes/s on disk",
+                durability, BURST_WRITES, BURST_KEYS, BURST_WRITES / completed * 1000,
+                BURST_WRITES / flushed * 1000);
+        book.destroy().await();
+    }
+
+    /**
+     * Objects and bytes allocated per operation on the calling thread, using the runtime's
+     * allocation counters. The book runs on {@link Schedulers#immediate()} so the whole operation
+     * is counted, storage included.
+     */
+    @Test
+    public void benchmarkAllocations() throws Exception {
+        final RxPaperBook book = RxPaperBook.with("BENCH_ALLOCATIONS", Schedulers.immediate());
+        book.destroy().await();
+        final ImmutableObject value = new ImmutableObject("value");
+        book.write("key", value).await();
+        measureAllocations("write", new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return book.write("key", value).subscribe();
+            }
+        });
+        measureAllocations("read", new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return book.read("key").subscribe();
+            }
+        });
+        measureAllocations("exists", new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return book.exists("key").subscribe();
+            }
+        });
+        measureAllocations("observe", new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                final Subscription subscription = book.observe("key", ImmutableObject.class)
+                        .subscribe();
+                subscription.unsubscribe();
+                return subscription;
+            }
+        });
+        final Subscription observer = book.observe("key", ImmutableObject.class).subscribe();
+        measureAllocations("write observed", new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return book.write("key", value).subscribe();
+            }
+        });
+        observer.unsubscribe();
+        book.destroy().await();
+    }
+
+    @SuppressWarnings("deprecation")
+    private void measureAllocations(String label, Func0<Subscription> operation) {
+        // warm up class loading and caches before counting
+        for (int i = 0; i < ALLOCATION_OPS; i++) {
+            operation.call();
+        }
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ALLOCATION_OPS; i++) {
+            operation.call();
+        }
+        Debug.stopAllocCounting();
+        log("%s: %.1f allocations/op, %.0f bytes/op", label,
+                (double)Debug.getThreadAllocCount() / ALLOCATION_OPS,
+                (double)Debug.getThreadAllocSize() / ALLOCATION_OPS);
+    }
+}
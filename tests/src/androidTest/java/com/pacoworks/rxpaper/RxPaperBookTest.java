@@ -22,7 +22,15 @@
 
 package com.pacoworks.rxpaper;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -32,6 +40,8 @@ import org.junit.runner.RunWith;
 
 import rx.Completable;
 import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Func1;
 import rx.observers.TestSubscriber;
 import rx.schedulers.Schedulers;
 
@@ -61,6 +71,16 @@ public class RxPaperBookTest {
         RxPaperBook.with("DESTROY").destroy().subscribe();
         RxPaperBook.with("UPDATES_UNCH").destroy().subscribe();
         RxPaperBook.with("UPDATES_CH").destroy().subscribe();
+        RxPaperBook.with("SCAN").destroy().subscribe();
+        RxPaperBook.with("WRITE_TTL").destroy().subscribe();
+        RxPaperBook.with("BOUNDED").destroy().subscribe();
+        RxPaperBook.withShards("SHARDED", 4).destroy().await();
+        RxPaperBook.with("PRIORITY").destroy().subscribe();
+        RxPaperBook.with("GROUP_COMMIT").destroy().subscribe();
+        RxPaperBook.with("RELAXED").destroy().subscribe();
+        RxPaperBook.with("SINGLE_FLIGHT").destroy().subscribe();
+        RxPaperBook.with("EXTERNAL").destroy().subscribe();
+        RxPaperBook.with("PREFIX").destroy().subscribe();
     }
 
     @Test
@@ -77,6 +97,37 @@ public class RxPaperBookTest {
         Assert.assertTrue(book.book.exist(key));
     }
 
+    @Test
+    public void testWriteWithTtl() throws Exception {
+        RxPaperBook book = RxPaperBook.with("WRITE_TTL", Schedulers.immediate());
+        final String key = "hello";
+        final String key2 = "you";
+        final ComplexObject value = ComplexObject.random();
+        final TestSubscriber<Object> testSubscriber = TestSubscriber.create();
+        book.write(key, value, 100, TimeUnit.MILLISECONDS).subscribe(testSubscriber);
+        testSubscriber.awaitTerminalEvent();
+        testSubscriber.assertCompleted();
+        testSubscriber.assertNoErrors();
+        book.write(key2, value).subscribe();
+        Assert.assertTrue(book.exists(key).toBlocking().value());
+        Assert.assertEquals(value, book.read(key).toBlocking().value());
+        Thread.sleep(200);
+        // expired
+        Assert.assertFalse(book.exists(key).toBlocking().value());
+        final ComplexObject defaultValue = ComplexObject.random();
+        Assert.assertEquals(defaultValue, book.read(key, defaultValue).toBlocking().value());
+        final TestSubscriber<ComplexObject> notFoundSubscriber = TestSubscriber.create();
+        book.<ComplexObject> read(key).subscribe(notFoundSubscriber);
+        notFoundSubscriber.awaitTerminalEvent();
+        notFoundSubscriber.assertError(IllegalArgumentException.class);
+        final List<String> keys = book.keys().toBlocking().value();
+        Assert.assertFalse(keys.contains(key));
+        Assert.assertTrue(keys.contains(key2));
+        // swept
+        Assert.assertFalse(book.book.exist(key));
+        Assert.assertTrue(book.book.exist(key2));
+    }
+
     @Test
     public void testReadError() throws Exception {
     }
@@ -306,4 +357,261 @@ public class RxPaperBookTest {
         updatesSubscriber.assertValues(value, newValue);
         updatesSubscriber.assertNoErrors();
     }
+
+    @Test
+    public void testScan() throws Exception {
+        RxPaperBook book = RxPaperBook.with("SCAN", Schedulers.immediate());
+        final ImmutableObject match = new ImmutableObject("match");
+        book.write("hello", match).subscribe();
+        book.write("you", new ImmutableObject("other")).subscribe();
+        final TestSubscriber<ImmutableObject> scanSubscriber = TestSubscriber.create();
+        book.scan(new Func1<ImmutableObject, Boolean>() {
+            @Override
+            public Boolean call(ImmutableObject immutableObject) {
+                return "match".equals(immutableObject.getValue());
+            }
+        }).subscribe(scanSubscriber);
+        scanSubscriber.awaitTerminalEvent();
+        scanSubscriber.assertNoErrors();
+        scanSubscriber.assertCompleted();
+        scanSubscriber.assertValues(match);
+        // early termination
+        final TestSubscriber<ImmutableObject> firstSubscriber = TestSubscriber.create();
+        book.scan(new Func1<ImmutableObject, Boolean>() {
+            @Override
+            public Boolean call(ImmutableObject immutableObject) {
+                return true;
+            }
+        }).first().subscribe(firstSubscriber);
+        firstSubscriber.awaitTerminalEvent();
+        firstSubscriber.assertNoErrors();
+        firstSubscriber.assertValueCount(1);
+    }
+
+    @Test
+    public void testBoundedBook() throws Exception {
+        RxPaperBook book = RxPaperBook.withBounds("BOUNDED", Long.MAX_VALUE, 10,
+                EvictionPolicy.LRU, Schedulers.immediate());
+        final TestSubscriber<Eviction> evictionSubscriber = TestSubscriber.create();
+        book.observeEvictions().subscribe(evictionSubscriber);
+        final TestSubscriber<Eviction> keySubscriber = TestSubscriber.create();
+        book.observe("key1", Eviction.class).subscribe(keySubscriber);
+        for (int i = 0; i < 10; i++) {
+            book.write("key" + i, ComplexObject.random()).subscribe();
+            Thread.sleep(5);
+        }
+        evictionSubscriber.assertValueCount(0);
+        // most recently used
+        book.read("key0").subscribe();
+        book.write("key10", ComplexObject.random()).subscribe();
+        evictionSubscriber.assertValueCount(2);
+        Assert.assertEquals("key1", evictionSubscriber.getOnNextEvents().get(0).getKey());
+        Assert.assertEquals("key2", evictionSubscriber.getOnNextEvents().get(1).getKey());
+        keySubscriber.assertValueCount(1);
+        Assert.assertTrue(book.book.exist("key0"));
+        Assert.assertFalse(book.book.exist("key1"));
+        Assert.assertFalse(book.book.exist("key2"));
+        final EvictionStats stats = book.evictionStats();
+        Assert.assertEquals(9, stats.getEntries());
+        Assert.assertEquals(2, stats.getEvictions());
+        Assert.assertTrue(stats.getBytesReclaimed() > 0);
+    }
+
+    @Test
+    public void testShardedBook() throws Exception {
+        RxPaperBook book = RxPaperBook.withShards("SHARDED", 4, Schedulers.immediate());
+        final ComplexObject value = ComplexObject.random();
+        for (int i = 0; i < 20; i++) {
+            book.write("key" + i, value).subscribe();
+        }
+        Assert.assertEquals(value, book.read("key7").toBlocking().value());
+        Assert.assertTrue(book.exists("key7").toBlocking().value());
+        Assert.assertEquals(20, book.keys().toBlocking().value().size());
+        Assert.assertEquals(4, book.book.shards().size());
+        for (PaperStore shard : book.book.shards()) {
+            Assert.assertTrue(shard.getAllKeys().size() < 20);
+        }
+        book.delete("key7").subscribe();
+        Assert.assertFalse(book.exists("key7").toBlocking().value());
+        final TestSubscriber<Void> destroySubscriber = TestSubscriber.create();
+        book.destroy().subscribe(destroySubscriber);
+        destroySubscriber.awaitTerminalEvent();
+        destroySubscriber.assertCompleted();
+        Assert.assertTrue(book.keys().toBlocking().value().isEmpty());
+    }
+
+    @Test
+    public void testPriorityLanes() throws Exception {
+        RxPaperBook book = RxPaperBook.withPriorityLanes("PRIORITY", 1, Schedulers.immediate());
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        final TestSubscriber<ComplexObject> updatesSubscriber = TestSubscriber.create();
+        book.observe(key, ComplexObject.class).subscribe(updatesSubscriber);
+        final TestSubscriber<Void> writeSubscriber = TestSubscriber.create();
+        book.background().write(key, value).subscribe(writeSubscriber);
+        writeSubscriber.awaitTerminalEvent();
+        writeSubscriber.assertCompleted();
+        updatesSubscriber.assertValues(value);
+        Assert.assertEquals(value, book.foreground().read(key).toBlocking().value());
+        Assert.assertEquals(value, book.read(key).toBlocking().value());
+        Assert.assertTrue(book.exists(key).toBlocking().value());
+        // unprioritized books ignore priorities
+        final RxPaperBook unprioritized = RxPaperBook.with("PRIORITY", Schedulers.immediate());
+        Assert.assertSame(unprioritized, unprioritized.foreground());
+        Assert.assertSame(unprioritized, unprioritized.background());
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        RxPaperBook book = RxPaperBook.withDurability("GROUP_COMMIT", Durability.GROUP_COMMIT,
+                Schedulers.io());
+        final ComplexObject value = ComplexObject.random();
+        final TestSubscriber<ComplexObject> updatesSubscriber = TestSubscriber.create();
+        book.observe("key0", ComplexObject.class).subscribe(updatesSubscriber);
+        final List<Completable> writes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            writes.add(book.write("key" + i, value));
+        }
+        final TestSubscriber<Void> writeSubscriber = TestSubscriber.create();
+        Completable.merge(writes).subscribe(writeSubscriber);
+        writeSubscriber.awaitTerminalEvent();
+        writeSubscriber.assertCompleted();
+        writeSubscriber.assertNoErrors();
+        updatesSubscriber.assertValues(value);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(book.book.exist("key" + i));
+        }
+    }
+
+    @Test
+    public void testRelaxed() throws Exception {
+        RxPaperBook book = RxPaperBook.withDurability("RELAXED", Durability.RELAXED,
+                Schedulers.immediate());
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        final TestSubscriber<Void> writeSubscriber = TestSubscriber.create();
+        book.write(key, value).subscribe(writeSubscriber);
+        writeSubscriber.assertCompleted();
+        // pending writes are visible before being saved
+        Assert.assertFalse(book.book.exist(key));
+        Assert.assertEquals(value, book.read(key).toBlocking().value());
+        Assert.assertTrue(book.exists(key).toBlocking().value());
+        Assert.assertTrue(book.keys().toBlocking().value().contains(key));
+        final TestSubscriber<Void> flushSubscriber = TestSubscriber.create();
+        book.flush().subscribe(flushSubscriber);
+        flushSubscriber.assertCompleted();
+        Assert.assertTrue(book.book.exist(key));
+        // deletes discard pending writes
+        book.write(key, ComplexObject.random()).subscribe();
+        book.delete(key).subscribe();
+        book.flush().subscribe();
+        Assert.assertFalse(book.book.exist(key));
+    }
+
+    @Test
+    public void testReadCoalescing() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        RxPaperBook book = RxPaperBook.with("SINGLE_FLIGHT", Schedulers.from(executor));
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        book.write(key, value).await();
+        // hold the only thread so all reads are in flight at once
+        final CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final List<TestSubscriber<ComplexObject>> readers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final TestSubscriber<ComplexObject> reader = TestSubscriber.create();
+            book.<ComplexObject> read(key).subscribe(reader);
+            readers.add(reader);
+        }
+        latch.countDown();
+        for (TestSubscriber<ComplexObject> reader : readers) {
+            reader.awaitTerminalEvent();
+            reader.assertNoErrors();
+            reader.assertValues(value);
+        }
+        final ReadStats stats = book.readStats();
+        Assert.assertEquals(5, stats.getReads());
+        Assert.assertEquals(4, stats.getCoalesced());
+        // writes are seen by later reads
+        final ComplexObject newValue = ComplexObject.random();
+        book.write(key, newValue).await();
+        Assert.assertEquals(newValue, book.read(key).toBlocking().value());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testExternalChanges() throws Exception {
+        RxPaperBook book = RxPaperBook.with("EXTERNAL", Schedulers.io());
+        // a separate instance doesn't share updates, like another process
+        RxPaperBook external = RxPaperBook.with("EXTERNAL", Schedulers.immediate());
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        final TestSubscriber<ComplexObject> updatesSubscriber = TestSubscriber.create();
+        book.observe(key, ComplexObject.class).subscribe(updatesSubscriber);
+        final Subscription watch = book.watchExternalChanges();
+        external.write(key, value).subscribe();
+        updatesSubscriber.awaitValueCount(1, 5, TimeUnit.SECONDS);
+        updatesSubscriber.assertValues(value);
+        // own writes are not sent twice
+        final ComplexObject newValue = ComplexObject.random();
+        book.write(key, newValue).await();
+        Thread.sleep(500);
+        updatesSubscriber.assertValues(value, newValue);
+        watch.unsubscribe();
+        external.write(key, ComplexObject.random()).subscribe();
+        Thread.sleep(500);
+        updatesSubscriber.assertValueCount(2);
+    }
+
+    @Test
+    public void testPrefixes() throws Exception {
+        RxPaperBook book = RxPaperBook.with("PREFIX", Schedulers.immediate());
+        final ComplexObject profile = ComplexObject.random();
+        final ComplexObject settings = ComplexObject.random();
+        book.write("user:1:profile", profile).subscribe();
+        book.write("user:1:settings", settings).subscribe();
+        book.write("user:2:profile", ComplexObject.random()).subscribe();
+        book.write("feed:1", ComplexObject.random()).subscribe();
+        final TestSubscriber<Map.Entry<String, ComplexObject>> updatesSubscriber = TestSubscriber
+                .create();
+        book.observePrefix("user:1:", ComplexObject.class).subscribe(updatesSubscriber);
+        final ComplexObject friends = ComplexObject.random();
+        book.write("user:1:friends", friends).subscribe();
+        book.write("user:2:friends", ComplexObject.random()).subscribe();
+        updatesSubscriber.assertValueCount(1);
+        Assert.assertEquals("user:1:friends", updatesSubscriber.getOnNextEvents().get(0).getKey());
+        Assert.assertEquals(friends, updatesSubscriber.getOnNextEvents().get(0).getValue());
+        // keys
+        final TestSubscriber<List<String>> keysSubscriber = TestSubscriber.create();
+        book.keys("user:1:").subscribe(keysSubscriber);
+        keysSubscriber.assertValue(
+                Arrays.asList("user:1:friends", "user:1:profile", "user:1:settings"));
+        // reads
+        final TestSubscriber<Map<String, ComplexObject>> readSubscriber = TestSubscriber.create();
+        book.<ComplexObject> readPrefix("user:1:").subscribe(readSubscriber);
+        readSubscriber.assertNoErrors();
+        final Map<String, ComplexObject> read = readSubscriber.getOnNextEvents().get(0);
+        Assert.assertEquals(3, read.size());
+        Assert.assertEquals(profile, read.get("user:1:profile"));
+        Assert.assertEquals(settings, read.get("user:1:settings"));
+        // deletes
+        final TestSubscriber<Void> deleteSubscriber = TestSubscriber.create();
+        book.deletePrefix("user:1:").subscribe(deleteSubscriber);
+        deleteSubscriber.assertCompleted();
+        Assert.assertTrue(book.keys("user:1:").toBlocking().value().isEmpty());
+        final List<String> remaining = book.keys().toBlocking().value();
+        Collections.sort(remaining);
+        Assert.assertEquals(Arrays.asList("feed:1", "user:2:friends", "user:2:profile"),
+                remaining);
+    }
 }